@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud.app;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.function.Function;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import graphql.ExecutionInput;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+
+/**
+ * Keeps the parsed and validated document of the recent queries, so that the same operation sent again
+ * is not parsed and validated against the schema every time.
+ */
+@ApplicationScoped
+public class DocumentCache implements PreparsedDocumentProvider {
+
+    private Cache<Key, PreparsedDocumentEntry> cache;
+
+    private static final class Key {
+        private final String query;
+        private final String operationName;
+
+        Key(String query, String operationName) {
+            this.query = query;
+            this.operationName = operationName;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.query, this.operationName);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Objects.equals(this.query, other.query) && Objects.equals(this.operationName, other.operationName);
+        }
+    }
+
+    @Inject
+    public DocumentCache(@ConfigProperty(name = "graphqlcrud.graphql.document-cache.max-entries", defaultValue = "1000") long maxEntries,
+            @ConfigProperty(name = "graphqlcrud.graphql.document-cache.ttl", defaultValue = "PT1H") Duration ttl) {
+        if (maxEntries > 0) {
+            this.cache = Caffeine.newBuilder()
+                    .maximumSize(maxEntries)
+                    .expireAfterWrite(ttl)
+                    .recordStats()
+                    .build();
+        }
+    }
+
+    @Override
+    public PreparsedDocumentEntry getDocument(ExecutionInput executionInput,
+            Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction) {
+        if (this.cache == null) {
+            return parseAndValidateFunction.apply(executionInput);
+        }
+        Key key = new Key(executionInput.getQuery(), executionInput.getOperationName());
+        return this.cache.get(key, k -> parseAndValidateFunction.apply(executionInput));
+    }
+
+    @Gauge(name = "graphqlcrud.document-cache.hit-rate", unit = MetricUnits.NONE, absolute = true,
+            description = "Ratio of the requests that found their document in the cache")
+    public double getHitRate() {
+        return this.cache == null ? 0 : this.cache.stats().hitRate();
+    }
+
+    @Gauge(name = "graphqlcrud.document-cache.hits", unit = MetricUnits.NONE, absolute = true)
+    public long getHitCount() {
+        return this.cache == null ? 0 : this.cache.stats().hitCount();
+    }
+
+    @Gauge(name = "graphqlcrud.document-cache.misses", unit = MetricUnits.NONE, absolute = true)
+    public long getMissCount() {
+        return this.cache == null ? 0 : this.cache.stats().missCount();
+    }
+
+    @Gauge(name = "graphqlcrud.document-cache.evictions", unit = MetricUnits.NONE, absolute = true)
+    public long getEvictionCount() {
+        return this.cache == null ? 0 : this.cache.stats().evictionCount();
+    }
+
+    @Gauge(name = "graphqlcrud.document-cache.size", unit = MetricUnits.NONE, absolute = true)
+    public long getSize() {
+        return this.cache == null ? 0 : this.cache.estimatedSize();
+    }
+}
@@ -16,32 +16,67 @@
 package io.graphqlcrud.app;
 
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.enterprise.event.Observes;
+import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 
+import io.quarkus.runtime.ShutdownEvent;
 import io.quarkus.runtime.StartupEvent;
+import io.quarkus.vertx.http.runtime.CurrentVertxRequest;
+import io.vertx.core.http.HttpServerResponse;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import graphql.ExecutionInput;
 import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import graphql.GraphQLError;
+import graphql.GraphqlErrorBuilder;
 import graphql.GraphQL;
+import graphql.execution.AsyncExecutionStrategy;
+import graphql.execution.AsyncSerialExecutionStrategy;
+import graphql.execution.ExecutionStrategy;
+import graphql.execution.instrumentation.ChainedInstrumentation;
+import graphql.execution.instrumentation.Instrumentation;
 import graphql.schema.GraphQLSchema;
 import graphql.schema.idl.SchemaPrinter;
 import io.agroal.api.AgroalDataSource;
+import io.graphqlcrud.BoundedExecutor;
+import io.graphqlcrud.DSLContexts;
 import io.graphqlcrud.DatabaseSchemaBuilder;
 import io.graphqlcrud.GraphQLSchemaBuilder;
+import io.graphqlcrud.QueryCostInstrumentation;
+import io.graphqlcrud.RelationStrategy;
 import io.graphqlcrud.SQLContext;
+import io.graphqlcrud.SlowQueryLog;
 import io.graphqlcrud.model.Schema;
 
 @Path("/graphql")
@@ -52,48 +87,296 @@ public class GraphQLResource {
 
     private AgroalDataSource datasource;
     private GraphQLSchema schema;
+    private GraphQL graphQL;
     private String dbSchemaName;
     private String dialect;
-
+    private boolean bindParameters;
+    private String executionStrategy;
+    private List<String> instrumentationClasses;
+    private Instance<Instrumentation> instrumentationBeans;
+    private DocumentCache documentCache;
+    private PersistedQueryStore persistedQueries;
+    private boolean streamingResponse;
+    private ObjectMapper objectMapper;
+    private boolean parallelRootFields;
+    private int maxParallelRootFields;
+    private ExecutorService rootFieldExecutor;
+    private boolean asyncExecution;
+    private ExecutorService requestExecutor;
+    private int rootFieldThreads;
+    private int asyncThreads;
+    private int asyncQueueSize;
+    private RelationStrategy relationStrategy;
+    private List<String> batchedRelations;
+    private MetricsRecorder metrics;
+    private SlowQueryLog slowQueries;
+    private long maxCost;
+    private int maxDepth;
+    private int unboundedRows;
+    private Integer defaultRelationLimit;
+    private Duration queryTimeout;
+    private Map<String, Duration> queryTimeouts = new HashMap<>();
+    private Duration operationTimeout;
+    private CurrentVertxRequest currentRequest;
 
     @Inject
-    public GraphQLResource(AgroalDataSource datasource, @ConfigProperty(name = "graphqlcrud.datasource.schema") String dbSchemaName,  @ConfigProperty(name = "graphqlcrud.datasource.dialect") String dialect) {
+    public GraphQLResource(AgroalDataSource datasource, @ConfigProperty(name = "graphqlcrud.datasource.schema") String dbSchemaName,  @ConfigProperty(name = "graphqlcrud.datasource.dialect") String dialect,
+            @ConfigProperty(name = "graphqlcrud.sql.bind-parameters", defaultValue = "true") boolean bindParameters,
+            @ConfigProperty(name = "graphqlcrud.graphql.execution-strategy", defaultValue = "async") String executionStrategy,
+            @ConfigProperty(name = "graphqlcrud.graphql.instrumentations") Optional<List<String>> instrumentationClasses,
+            @ConfigProperty(name = "graphqlcrud.http.streaming-response", defaultValue = "false") boolean streamingResponse,
+            @ConfigProperty(name = "graphqlcrud.graphql.parallel-root-fields", defaultValue = "false") boolean parallelRootFields,
+            @ConfigProperty(name = "graphqlcrud.graphql.max-parallel-root-fields", defaultValue = "4") int maxParallelRootFields,
+            @ConfigProperty(name = "graphqlcrud.http.async-execution", defaultValue = "false") boolean asyncExecution,
+            @ConfigProperty(name = "graphqlcrud.graphql.root-field-threads", defaultValue = "20") int rootFieldThreads,
+            @ConfigProperty(name = "graphqlcrud.http.async-threads", defaultValue = "20") int asyncThreads,
+            @ConfigProperty(name = "graphqlcrud.http.async-queue-size", defaultValue = "1000") int asyncQueueSize,
+            @ConfigProperty(name = "graphqlcrud.sql.relation-strategy", defaultValue = "subquery") String relationStrategy,
+            @ConfigProperty(name = "graphqlcrud.sql.batched-relations") Optional<List<String>> batchedRelations,
+            @ConfigProperty(name = "graphqlcrud.sql.metrics.enabled", defaultValue = "true") boolean metricsEnabled,
+            @ConfigProperty(name = "graphqlcrud.graphql.max-cost", defaultValue = "0") long maxCost,
+            @ConfigProperty(name = "graphqlcrud.graphql.max-depth", defaultValue = "0") int maxDepth,
+            @ConfigProperty(name = "graphqlcrud.graphql.unbounded-rows", defaultValue = "100") int unboundedRows,
+            @ConfigProperty(name = "graphqlcrud.sql.default-relation-limit") Optional<Integer> defaultRelationLimit,
+            @ConfigProperty(name = "graphqlcrud.sql.query-timeout") Optional<Duration> queryTimeout,
+            @ConfigProperty(name = "graphqlcrud.sql.query-timeouts") Optional<List<String>> queryTimeouts,
+            @ConfigProperty(name = "graphqlcrud.graphql.operation-timeout") Optional<Duration> operationTimeout,
+            @ConfigProperty(name = "graphqlcrud.http.cancel-on-disconnect", defaultValue = "true") boolean cancelOnDisconnect,
+            CurrentVertxRequest currentRequest,
+            Instance<Instrumentation> instrumentationBeans, DocumentCache documentCache, PersistedQueryStore persistedQueries,
+            MetricsRecorder metrics, SlowQueryLog slowQueries, ObjectMapper objectMapper) {
         this.datasource = datasource;
         this.dbSchemaName = dbSchemaName;
         this.dialect = dialect;
+        this.bindParameters = bindParameters;
+        this.executionStrategy = executionStrategy;
+        this.instrumentationClasses = instrumentationClasses.orElse(Collections.emptyList());
+        this.instrumentationBeans = instrumentationBeans;
+        this.streamingResponse = streamingResponse;
+        this.objectMapper = objectMapper;
+        this.parallelRootFields = parallelRootFields;
+        this.maxParallelRootFields = maxParallelRootFields;
+        this.asyncExecution = asyncExecution;
+        this.rootFieldThreads = rootFieldThreads;
+        this.asyncThreads = asyncThreads;
+        this.asyncQueueSize = asyncQueueSize;
+        this.relationStrategy = RelationStrategy.valueOf(relationStrategy.trim().toUpperCase());
+        this.batchedRelations = batchedRelations.orElse(Collections.emptyList());
+        this.documentCache = documentCache;
+        this.persistedQueries = persistedQueries;
+        this.metrics = metricsEnabled ? metrics : null;
+        this.slowQueries = slowQueries.isEnabled() ? slowQueries : null;
+        this.maxCost = maxCost;
+        this.maxDepth = maxDepth;
+        this.unboundedRows = unboundedRows;
+        this.defaultRelationLimit = defaultRelationLimit.orElse(null);
+        this.queryTimeout = queryTimeout.orElse(null);
+        for (String entry : queryTimeouts.orElse(Collections.emptyList())) {
+            String[] entityTimeout = entry.split("=");
+            if (entityTimeout.length != 2) {
+                throw new IllegalArgumentException("Expected ENTITY=duration in graphqlcrud.sql.query-timeouts, got " + entry);
+            }
+            this.queryTimeouts.put(entityTimeout[0].trim(), Duration.parse(entityTimeout[1].trim()));
+        }
+        this.operationTimeout = operationTimeout.orElse(null);
+        this.currentRequest = cancelOnDisconnect ? currentRequest : null;
     }
 
    
     void init(@Observes StartupEvent event) throws SQLException {
+        // fail fast on a wrong dialect, and have the jOOQ configuration ready before first request
+        DSLContexts.get(this.dialect);
+
         try (Connection conn = this.datasource.getConnection()) {
             Schema dbSchema = DatabaseSchemaBuilder.getSchema(conn, this.dbSchemaName);
             this.schema = GraphQLSchemaBuilder.getSchema(dbSchema);
             SchemaPrinter sp = new SchemaPrinter();
             LOGGER.info(sp.print(this.schema));
         }
+
+        this.graphQL = GraphQL
+                .newGraphQL(this.schema)
+                .queryExecutionStrategy(buildExecutionStrategy())
+                .instrumentation(buildInstrumentation())
+                .preparsedDocumentProvider(this.documentCache)
+                .build();
+
+        if (this.parallelRootFields) {
+            if (this.maxParallelRootFields < 1) {
+                throw new IllegalArgumentException("graphqlcrud.graphql.max-parallel-root-fields must be at least 1");
+            }
+            // each request queues at most max-parallel-root-fields tasks at a time, the queue needs no bound
+            this.rootFieldExecutor = newExecutor("graphqlcrud-root-field-", this.rootFieldThreads,
+                    Integer.MAX_VALUE);
+        }
+        if (this.asyncExecution) {
+            this.requestExecutor = newExecutor("graphqlcrud-request-", this.asyncThreads, this.asyncQueueSize);
+        }
+    }
+
+    void shutdown(@Observes ShutdownEvent event) {
+        if (this.rootFieldExecutor != null) {
+            this.rootFieldExecutor.shutdown();
+        }
+        if (this.requestExecutor != null) {
+            this.requestExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Fixed number of daemon threads, that go away when idle. The tasks past the queue size are rejected.
+     * The threads mostly wait on JDBC, size them along with the connection pool.
+     */
+    private static ExecutorService newExecutor(String threadPrefix, int threads, int queueSize) {
+        if (threads < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("The " + threadPrefix + " threads and queue size must be at least 1");
+        }
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueSize), r -> {
+                    Thread t = new Thread(r, threadPrefix + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private ExecutionStrategy buildExecutionStrategy() {
+        switch (this.executionStrategy) {
+            case "async":
+                return new AsyncExecutionStrategy();
+            case "serial":
+                return new AsyncSerialExecutionStrategy();
+            default:
+                throw new IllegalArgumentException("Unknown execution strategy " + this.executionStrategy
+                        + ", expected one of async, serial");
+        }
+    }
+
+    /**
+     * Chain of the cost check, the Instrumentation beans, followed by the classes configured in
+     * "graphqlcrud.graphql.instrumentations"
+     */
+    private Instrumentation buildInstrumentation() {
+        List<Instrumentation> chain = new ArrayList<>();
+        if (this.maxCost > 0 || this.maxDepth > 0) {
+            chain.add(new QueryCostInstrumentation(this.maxCost, this.maxDepth, this.unboundedRows,
+                    this.defaultRelationLimit));
+        }
+        this.instrumentationBeans.forEach(chain::add);
+        for (String className : this.instrumentationClasses) {
+            try {
+                Class<?> clazz = Thread.currentThread().getContextClassLoader().loadClass(className.trim());
+                chain.add((Instrumentation) clazz.getDeclaredConstructor().newInstance());
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalArgumentException("Failed to create instrumentation " + className, e);
+            }
+        }
+        LOGGER.info("GraphQL instrumentation chain: " + chain);
+        return new ChainedInstrumentation(chain);
+    }
+
+    /**
+     * Automatic persisted queries, a request with the hash and the query registers the query, after that
+     * the hash alone is enough.
+     */
+    private GraphQLError resolvePersistedQuery(QueryParameters qp) {
+        String hash = qp.getPersistedQueryHash();
+        if (hash == null || !this.persistedQueries.isEnabled()) {
+            return null;
+        }
+        if (qp.getQuery() == null) {
+            qp.query = this.persistedQueries.get(hash);
+            if (qp.query == null) {
+                return GraphqlErrorBuilder.newError().message("PersistedQueryNotFound")
+                        .extensions(Collections.singletonMap("code", "PERSISTED_QUERY_NOT_FOUND")).build();
+            }
+        } else {
+            if (!hash.equals(PersistedQueryStore.sha256(qp.getQuery()))) {
+                return GraphqlErrorBuilder.newError().message("provided sha does not match query")
+                        .extensions(Collections.singletonMap("code", "INTERNAL_SERVER_ERROR")).build();
+            }
+            this.persistedQueries.put(hash, qp.getQuery());
+        }
+        return null;
     }
 
     @POST
-    public Map<String, Object> graphql(String query) throws Exception {
+    public CompletionStage<Response> graphql(String query) throws Exception {
         QueryParameters qp = QueryParameters.from(query);
+        GraphQLError error = resolvePersistedQuery(qp);
+        if (error != null) {
+            return CompletableFuture.completedFuture(respond(new ExecutionResultImpl(error)));
+        }
 
         ExecutionInput.Builder executionInput = ExecutionInput.newExecutionInput()
                 .query(qp.getQuery())
                 .operationName(qp.getOperationName())
                 .variables(qp.getVariables());
 
-        // pass the datasource around
-        try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
+        // the request scope is not active on the threads of the request executor, get the response here
+        HttpServerResponse response = this.currentRequest == null ? null
+                : this.currentRequest.getCurrent().response();
+        if (this.requestExecutor == null) {
+            return CompletableFuture.completedFuture(respond(execute(executionInput, response)));
+        }
+        // frees the HTTP worker thread, the response is written once the execution completes
+        try {
+            return CompletableFuture.supplyAsync(() -> execute(executionInput, response), this.requestExecutor)
+                    .thenApply(this::respond);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+        }
+    }
+
+    /**
+     * @param response when not null, the statements still running are cancelled if its connection closes
+     */
+    private ExecutionResult execute(ExecutionInput.Builder executionInput, HttpServerResponse response) {
+        // pass the datasource around, the connection is borrowed only while the results are being read
+        SQLContext ctx = new SQLContext(this.datasource);
+        if (response != null) {
+            // cancelling may talk to the database, keep it off the event loop
+            response.closeHandler(v -> {
+                LOGGER.info("Client went away, cancelling the statements of the request");
+                CompletableFuture.runAsync(ctx::cancel);
+            });
+        }
+        try {
+            ctx.setOperationTimeout(this.operationTimeout);
+            ctx.setQueryTimeout(this.queryTimeout);
+            this.queryTimeouts.forEach(ctx::setQueryTimeout);
             ctx.setDialect(this.dialect);
-            executionInput.context(ctx);
+            ctx.setBindParameters(this.bindParameters);
+            ctx.setMetrics(this.metrics);
+            ctx.setSlowQueryLog(this.slowQueries);
+            ctx.setRelationStrategy(this.relationStrategy);
+            ctx.setDefaultRelationLimit(this.defaultRelationLimit);
+            this.batchedRelations.forEach(r -> ctx.setRelationStrategy(r.trim(), RelationStrategy.BATCH));
+            if (this.rootFieldExecutor != null) {
+                ctx.setParallelExecution(this.datasource,
+                        new BoundedExecutor(this.rootFieldExecutor, this.maxParallelRootFields));
+            }
+            executionInput.context(ctx).dataLoaderRegistry(ctx.getDataLoaderRegistry());
 
-            GraphQL graphQL = GraphQL
-                    .newGraphQL(schema)
-                    //.instrumentation(connectionInstrumentation)
-                    .build();
+            return this.graphQL.execute(executionInput.build());
+        } finally {
+            if (response != null) {
+                response.closeHandler(null);
+            }
+            try {
+                ctx.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close the SQL resources of the request", e);
+            }
+        }
+    }
 
-            ExecutionResult executionResult = graphQL.execute(executionInput.build());
-            return executionResult.toSpecification();
+    private Response respond(ExecutionResult executionResult) {
+        if (this.streamingResponse) {
+            return Response.ok(new JsonResponseWriter(this.objectMapper, executionResult)).build();
         }
+        return Response.ok(executionResult.toSpecification()).build();
     }
 }
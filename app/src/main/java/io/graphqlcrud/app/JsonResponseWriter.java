@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import graphql.ExecutionResult;
+import graphql.GraphQLError;
+
+/**
+ * Writes the {@link ExecutionResult} token by token to the HTTP output stream, in the layout of
+ * {@link ExecutionResult#toSpecification()}. graphql-java has built the whole result tree before this
+ * runs, so the memory used still grows with the size of the result, this only walks that tree instead
+ * of handing it to the JAX-RS Jackson provider. The values other than the JSON types are written with
+ * the application's {@link ObjectMapper}.
+ */
+public class JsonResponseWriter implements StreamingOutput {
+    private final ObjectWriter writer;
+    private final ExecutionResult result;
+
+    /**
+     * @param mapper the application's mapper, the stream is not flushed after every value it writes
+     */
+    public JsonResponseWriter(ObjectMapper mapper, ExecutionResult result) {
+        this.writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.result = result;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        try (JsonGenerator gen = this.writer.createGenerator(output, JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            // same order and rules as ExecutionResult#toSpecification
+            if (!this.result.getErrors().isEmpty()) {
+                gen.writeFieldName("errors");
+                gen.writeStartArray();
+                for (GraphQLError error : this.result.getErrors()) {
+                    writeValue(gen, error.toSpecification());
+                }
+                gen.writeEndArray();
+            }
+            if (this.result.isDataPresent()) {
+                gen.writeFieldName("data");
+                writeValue(gen, this.result.getData());
+            }
+            if (this.result.getExtensions() != null) {
+                gen.writeFieldName("extensions");
+                writeValue(gen, this.result.getExtensions());
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    private void writeValue(JsonGenerator gen, Object value) throws IOException {
+        if (value == null) {
+            gen.writeNull();
+        } else if (value instanceof String) {
+            gen.writeString((String) value);
+        } else if (value instanceof Map) {
+            gen.writeStartObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                gen.writeFieldName(String.valueOf(entry.getKey()));
+                writeValue(gen, entry.getValue());
+            }
+            gen.writeEndObject();
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            gen.writeStartArray();
+            for (int i = 0; i < list.size(); i++) {
+                writeValue(gen, list.get(i));
+            }
+            gen.writeEndArray();
+        } else if (value instanceof Integer) {
+            gen.writeNumber((Integer) value);
+        } else if (value instanceof Long) {
+            gen.writeNumber((Long) value);
+        } else if (value instanceof Double) {
+            gen.writeNumber((Double) value);
+        } else if (value instanceof BigDecimal) {
+            gen.writeNumber((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            gen.writeNumber((BigInteger) value);
+        } else if (value instanceof Boolean) {
+            gen.writeBoolean((Boolean) value);
+        } else {
+            this.writer.writeValue(gen, value);
+        }
+    }
+}
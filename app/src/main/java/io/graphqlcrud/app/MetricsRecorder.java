@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud.app;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Tag;
+
+import io.graphqlcrud.SQLMetrics;
+
+/**
+ * Records the measurements of the engine in the application registry, exposed on /metrics. The SQL
+ * metrics are tagged with the root field of the request and the entity of the rows.
+ */
+@ApplicationScoped
+public class MetricsRecorder implements SQLMetrics {
+
+    private static final Metadata BUILD_TIME = Metadata.builder().withName("graphqlcrud.sql.build-time")
+            .withType(MetricType.TIMER).withUnit(MetricUnits.NANOSECONDS)
+            .withDescription("Time spent generating the SQL of a query or a mutation").build();
+    private static final Metadata EXECUTE_TIME = Metadata.builder().withName("graphqlcrud.sql.execute-time")
+            .withType(MetricType.TIMER).withUnit(MetricUnits.NANOSECONDS)
+            .withDescription("Time the database took to execute a statement").build();
+    private static final Metadata ROWS = Metadata.builder().withName("graphqlcrud.sql.rows")
+            .withType(MetricType.COUNTER).withUnit(MetricUnits.NONE)
+            .withDescription("Rows read from the results of the statements").build();
+    private static final Metadata JSON_BYTES = Metadata.builder().withName("graphqlcrud.sql.json-bytes")
+            .withType(MetricType.COUNTER).withUnit(MetricUnits.BYTES)
+            .withDescription("Size of the JSON arrays of the nested relations parsed").build();
+    private static final Metadata ACQUIRE_TIME = Metadata.builder().withName("graphqlcrud.datasource.acquire-time")
+            .withType(MetricType.TIMER).withUnit(MetricUnits.NANOSECONDS)
+            .withDescription("Time spent waiting for a connection of the pool").build();
+
+    private MetricRegistry registry;
+
+    @Inject
+    public MetricsRecorder(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    private static Tag[] tags(String rootField, String entity) {
+        return new Tag[] {new Tag("field", rootField == null ? "" : rootField),
+                new Tag("entity", entity == null ? "" : entity)};
+    }
+
+    @Override
+    public void buildTime(String rootField, String entity, long nanos) {
+        this.registry.timer(BUILD_TIME, tags(rootField, entity)).update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void buildTime(String rootField, String entity, boolean cached, long nanos) {
+        Tag[] tags = tags(rootField, entity);
+        this.registry.timer(BUILD_TIME, tags[0], tags[1], new Tag("plan", cached ? "cached" : "built"))
+                .update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void executeTime(String rootField, String entity, long nanos) {
+        this.registry.timer(EXECUTE_TIME, tags(rootField, entity)).update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void rowsFetched(String rootField, String entity, long rows) {
+        this.registry.counter(ROWS, tags(rootField, entity)).inc(rows);
+    }
+
+    @Override
+    public void jsonBytesParsed(String rootField, String entity, long bytes) {
+        this.registry.counter(JSON_BYTES, tags(rootField, entity)).inc(bytes);
+    }
+
+    @Override
+    public void connectionAcquireTime(long nanos) {
+        this.registry.timer(ACQUIRE_TIME).update(nanos, TimeUnit.NANOSECONDS);
+    }
+}
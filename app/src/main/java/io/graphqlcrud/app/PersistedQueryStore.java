@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud.app;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+/**
+ * Store for the automatic persisted queries, where the clients send the sha256 hash of the query in
+ * "extensions.persistedQuery.sha256Hash" instead of the query text. The queries are kept in memory and,
+ * when a directory is configured, also in files so that those survive a restart and can be shared. Any
+ * client can register a query, so the directory is capped in files and bytes, the queries registered past
+ * the caps are only kept in memory.
+ */
+@ApplicationScoped
+public class PersistedQueryStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PersistedQueryStore.class);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private boolean enabled;
+    private Cache<String, String> cache;
+    private Path directory;
+    private long maxFiles;
+    private long maxBytes;
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicBoolean full = new AtomicBoolean();
+
+    @Inject
+    public PersistedQueryStore(@ConfigProperty(name = "graphqlcrud.graphql.persisted-queries.enabled", defaultValue = "true") boolean enabled,
+            @ConfigProperty(name = "graphqlcrud.graphql.persisted-queries.max-entries", defaultValue = "10000") long maxEntries,
+            @ConfigProperty(name = "graphqlcrud.graphql.persisted-queries.directory") Optional<String> directory,
+            @ConfigProperty(name = "graphqlcrud.graphql.persisted-queries.max-files", defaultValue = "10000") long maxFiles,
+            @ConfigProperty(name = "graphqlcrud.graphql.persisted-queries.max-bytes", defaultValue = "67108864") long maxBytes) throws IOException {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder().maximumSize(maxEntries).build();
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+        if (enabled && directory.isPresent()) {
+            this.directory = Paths.get(directory.get());
+            Files.createDirectories(this.directory);
+            try (Stream<Path> stored = Files.list(this.directory)) {
+                stored.filter(file -> file.getFileName().toString().endsWith(".graphql")).forEach(file -> {
+                    this.files.incrementAndGet();
+                    this.bytes.addAndGet(file.toFile().length());
+                });
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    public String get(String hash) {
+        if (!isValidHash(hash)) {
+            return null;
+        }
+        return this.cache.get(hash, this::read);
+    }
+
+    public void put(String hash, String query) {
+        this.cache.put(hash, query);
+        if (this.directory != null) {
+            Path file = this.directory.resolve(hash + ".graphql");
+            if (!Files.exists(file)) {
+                write(hash, file, query.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private void write(String hash, Path file, byte[] data) {
+        // reserve the room first, so that concurrent registrations can not go past the caps together
+        long reservedFiles = this.files.incrementAndGet();
+        long reservedBytes = this.bytes.addAndGet(data.length);
+        if (reservedFiles > this.maxFiles || reservedBytes > this.maxBytes) {
+            this.files.decrementAndGet();
+            this.bytes.addAndGet(-data.length);
+            if (this.full.compareAndSet(false, true)) {
+                LOGGER.warn("Persisted query directory " + this.directory + " is full, new queries are only kept in memory");
+            }
+            return;
+        }
+        try {
+            Path tmp = Files.createTempFile(this.directory, hash, ".tmp");
+            Files.write(tmp, data);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            this.files.decrementAndGet();
+            this.bytes.addAndGet(-data.length);
+            LOGGER.warn("Failed to write persisted query " + hash, e);
+        }
+    }
+
+    private String read(String hash) {
+        if (this.directory == null) {
+            return null;
+        }
+        Path file = this.directory.resolve(hash + ".graphql");
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read persisted query " + hash, e);
+            return null;
+        }
+    }
+
+    // the hash is used as file name, so only accept what a sha256 in hex looks like
+    private static boolean isValidHash(String hash) {
+        if (hash == null || hash.length() != 64) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static String sha256(String query) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8));
+            char[] chars = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                chars[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+                chars[i * 2 + 1] = HEX[digest[i] & 0xf];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -26,6 +26,7 @@ public class QueryParameters {
     String query;
     String operationName;
     Map<String, Object> variables = Collections.emptyMap();
+    Map<String, Object> extensions = Collections.emptyMap();
 
     public String getQuery() {
         return query;
@@ -39,12 +40,29 @@ public class QueryParameters {
         return variables;
     }
 
+    public Map<String, Object> getExtensions() {
+        return extensions;
+    }
+
+    /**
+     * The hash from "extensions.persistedQuery.sha256Hash" of the automatic persisted queries protocol, or null
+     */
+    public String getPersistedQueryHash() {
+        Object persistedQuery = extensions.get("persistedQuery");
+        if (persistedQuery instanceof Map) {
+            Object hash = ((Map<?, ?>) persistedQuery).get("sha256Hash");
+            return hash != null ? hash.toString() : null;
+        }
+        return null;
+    }
+
     public static QueryParameters from(String request) throws Exception {
         QueryParameters parameters = new QueryParameters();
         Map<String, Object> json = readJSON(request);
         parameters.query = (String) json.get("query");
         parameters.operationName = (String) json.get("operationName");
         parameters.variables = getVariables(json.get("variables"));
+        parameters.extensions = getVariables(json.get("extensions"));
         return parameters;
     }
 
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud.app;
+
+import java.time.Duration;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Disposes;
+import javax.enterprise.inject.Produces;
+import javax.inject.Singleton;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.agroal.api.AgroalDataSource;
+import io.graphqlcrud.SlowQueryLog;
+
+/**
+ * The slow query log shared by the requests and /admin/slow-queries, configured with the
+ * "graphqlcrud.sql.slow-queries" properties. It keeps no entries unless max-entries is set.
+ */
+@ApplicationScoped
+public class SlowQueryLogProducer {
+
+    @Produces
+    @Singleton
+    SlowQueryLog slowQueryLog(AgroalDataSource datasource,
+            @ConfigProperty(name = "graphqlcrud.datasource.dialect") String dialect,
+            @ConfigProperty(name = "graphqlcrud.sql.slow-queries.max-entries", defaultValue = "0") int maxEntries,
+            @ConfigProperty(name = "graphqlcrud.sql.slow-queries.threshold", defaultValue = "PT1S") Duration threshold,
+            @ConfigProperty(name = "graphqlcrud.sql.slow-queries.explain", defaultValue = "false") boolean explain) {
+        return new SlowQueryLog(threshold, maxEntries, explain ? datasource : null, dialect);
+    }
+
+    void close(@Disposes SlowQueryLog log) {
+        log.close();
+    }
+}
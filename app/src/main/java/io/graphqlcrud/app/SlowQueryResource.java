@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud.app;
+
+import java.util.List;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import io.graphqlcrud.SlowQueryLog;
+
+/**
+ * The recent statements that were slower than "graphqlcrud.sql.slow-queries.threshold", with their SQL,
+ * bind values, row count and, when enabled, their plan. Not found unless the log is enabled with
+ * "graphqlcrud.sql.slow-queries.max-entries". The bind values are the data of the requests and anyone can
+ * clear the log, deny the public access to /admin, see application.properties.
+ */
+@Path("/admin/slow-queries")
+@Produces(MediaType.APPLICATION_JSON)
+@ApplicationScoped
+public class SlowQueryResource {
+
+    private SlowQueryLog log;
+
+    @Inject
+    public SlowQueryResource(SlowQueryLog log) {
+        this.log = log;
+    }
+
+    private SlowQueryLog log() {
+        if (!this.log.isEnabled()) {
+            throw new NotFoundException();
+        }
+        return this.log;
+    }
+
+    @GET
+    public List<SlowQueryLog.Entry> list() {
+        return log().getEntries();
+    }
+
+    @DELETE
+    public void clear() {
+        log().clear();
+    }
+}
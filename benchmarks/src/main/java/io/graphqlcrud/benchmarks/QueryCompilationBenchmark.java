@@ -0,0 +1,195 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud.benchmarks;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLFieldsContainer;
+import graphql.schema.GraphQLNamedType;
+import graphql.schema.GraphQLSchema;
+import io.graphqlcrud.DatabaseSchemaBuilder;
+import io.graphqlcrud.GraphQLSchemaBuilder;
+import io.graphqlcrud.QueryScanner;
+import io.graphqlcrud.QueryShape;
+import io.graphqlcrud.SQLContext;
+import io.graphqlcrud.SQLMutationQueryBuilderVisitor;
+import io.graphqlcrud.SQLQueryBuilderVisitor;
+
+/**
+ * Cost of turning the root field of a request into SQL, that is the {@link QueryScanner} walk, the
+ * {@link SQLQueryBuilderVisitor} and the jOOQ rendering, for the shapes of query the engine sees most.
+ * Parsing, validation and the execution of the SQL are left out. Run with "-prof gc" for the
+ * allocation rate of each shape.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryCompilationBenchmark {
+
+    private static final Map<String, String> QUERIES = new HashMap<>();
+
+    static {
+        QUERIES.put("flat", "{\n" +
+                "  customers {\n" +
+                "    SSN\n" +
+                "    FIRSTNAME\n" +
+                "    LASTNAME\n" +
+                "    PHONE\n" +
+                "  }\n" +
+                "}");
+        QUERIES.put("filter", "{\n" +
+                "  customers (filter: {\n" +
+                "    SSN: {ne: \"CST01002\"},\n" +
+                "    and: {LASTNAME: {startsWith: \"D\"}, PHONE: {contains: \"651\"}},\n" +
+                "    or: {FIRSTNAME: {eq: \"John\"}, LASTNAME: {eq: \"Doe\"}},\n" +
+                "    not: {FIRSTNAME: {in: [\"Jane\", \"Joe\", \"Jim\"]}}\n" +
+                "  }, orderBy: {field: \"LASTNAME\", order: DESC}, page: {limit: 20, offset: 40}) {\n" +
+                "    SSN\n" +
+                "    FIRSTNAME\n" +
+                "    LASTNAME\n" +
+                "  }\n" +
+                "}");
+        QUERIES.put("nested", "{\n" +
+                "  customers (page: {limit: 20}) {\n" +
+                "    SSN\n" +
+                "    FIRSTNAME\n" +
+                "    accounts (page: {limit: 10}) {\n" +
+                "      ACCOUNT_ID\n" +
+                "      STATUS\n" +
+                "      holdinges (filter: {SHARES_COUNT: {gt: 10}}) {\n" +
+                "        PRODUCT_ID\n" +
+                "        SHARES_COUNT\n" +
+                "        PURCHASE_DATE\n" +
+                "      }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}");
+        QUERIES.put("mutation", "mutation {\n" +
+                "  updateCustomer(input: {\n" +
+                "    FIRSTNAME: \"James\",\n" +
+                "    PHONE: \"(651)590-9023\"\n" +
+                "  }, filter: {\n" +
+                "    SSN: {eq: \"CST01002\"}\n" +
+                "  }) {\n" +
+                "    SSN\n" +
+                "    FIRSTNAME\n" +
+                "  }\n" +
+                "}");
+    }
+
+    @Param({"flat", "filter", "nested", "mutation"})
+    public String shape;
+
+    @Param({"false", "true"})
+    public boolean bindParameters;
+
+    private Connection connection;
+    private SQLContext ctx;
+    private DataFetchingEnvironment environment;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.connection = DriverManager.getConnection("jdbc:h2:mem:benchmarks;DB_CLOSE_DELAY=-1");
+        try (Statement stmt = this.connection.createStatement()) {
+            stmt.execute("RUNSCRIPT FROM 'classpath:import.sql'");
+        }
+        GraphQLSchema schema = GraphQLSchemaBuilder.getSchema(DatabaseSchemaBuilder.getSchema(this.connection, "PUBLIC"));
+
+        this.ctx = new SQLContext(this.connection);
+        this.ctx.setDialect("POSTGRES");
+        this.ctx.setBindParameters(this.bindParameters);
+        this.environment = capture(schema, QUERIES.get(this.shape));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        this.connection.close();
+    }
+
+    /**
+     * Runs the query once, keeping the environment of its root field instead of fetching it
+     */
+    private static DataFetchingEnvironment capture(GraphQLSchema schema, String query) {
+        DataFetchingEnvironment[] captured = new DataFetchingEnvironment[1];
+        GraphQL graphQL = GraphQL.newGraphQL(schema).instrumentation(new SimpleInstrumentation() {
+            @Override
+            public DataFetcher<?> instrumentDataFetcher(DataFetcher<?> dataFetcher,
+                    InstrumentationFieldFetchParameters parameters) {
+                String parent = ((GraphQLNamedType) parameters.getEnvironment().getParentType()).getName();
+                if (!parent.equals("QueryType") && !parent.equals("MutationType")) {
+                    return dataFetcher;
+                }
+                return env -> {
+                    // the selection set is resolved once per request, before the SQL is built
+                    env.getSelectionSet().get();
+                    captured[0] = env;
+                    return null;
+                };
+            }
+        }).build();
+        ExecutionResult result = graphQL.execute(query);
+        if (!result.getErrors().isEmpty() || captured[0] == null) {
+            throw new IllegalStateException("Failed to run the benchmark query: " + result.getErrors());
+        }
+        return captured[0];
+    }
+
+    @Benchmark
+    public Object buildSQL() {
+        if (this.shape.equals("mutation")) {
+            SQLMutationQueryBuilderVisitor visitor = new SQLMutationQueryBuilderVisitor(this.ctx);
+            new QueryScanner(this.environment, visitor).scanMutation(this.environment.getField(),
+                    this.environment.getFieldDefinition(), null, true);
+            return this.bindParameters ? visitor.getParameterizedSQL() : visitor.getSQL();
+        }
+        QueryShape queryShape = this.bindParameters ? QueryShape.of(this.environment.getField()) : null;
+        SQLQueryBuilderVisitor visitor = new SQLQueryBuilderVisitor(this.ctx,
+                this.environment.getGraphQLSchema().getCodeRegistry(),
+                (GraphQLFieldsContainer) this.environment.getParentType(), queryShape);
+        new QueryScanner(this.environment, visitor).scanQuery(this.environment.getField(),
+                this.environment.getFieldDefinition(), null, true);
+        return this.bindParameters ? visitor.getParameterizedSQL() : visitor.getSQL();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Runs at most given number of tasks at same time on a shared executor, rest of the tasks wait in a queue
+ * without holding a thread. Meant to be created per request, to limit how many connections a single
+ * request borrows from the pool: a task that hands its connection on to be read later keeps its slot with
+ * {@link #executeHolding(Consumer)} until the connection is given back.
+ */
+public class BoundedExecutor implements Executor {
+    private final Executor delegate;
+    private final int limit;
+    private final Queue<Consumer<Runnable>> pending = new ArrayDeque<>();
+    private int running;
+
+    public BoundedExecutor(Executor delegate, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be at least 1, was " + limit);
+        }
+        this.delegate = delegate;
+        this.limit = limit;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executeHolding(release -> {
+            try {
+                task.run();
+            } finally {
+                release.run();
+            }
+        });
+    }
+
+    /**
+     * Runs the task once a slot is free. The slot stays taken after the task returns, until the release
+     * given to the task is run, from any thread. Running the release more than once has no effect.
+     */
+    public void executeHolding(Consumer<Runnable> task) {
+        synchronized (this) {
+            if (this.running >= this.limit) {
+                this.pending.add(task);
+                return;
+            }
+            this.running++;
+        }
+        submit(task);
+    }
+
+    private void submit(Consumer<Runnable> task) {
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                next();
+            }
+        };
+        try {
+            this.delegate.execute(() -> {
+                try {
+                    task.accept(release);
+                } catch (RuntimeException | Error e) {
+                    release.run();
+                    throw e;
+                }
+            });
+        } catch (RuntimeException e) {
+            release.run();
+            throw e;
+        }
+    }
+
+    private void next() {
+        Consumer<Runnable> task;
+        synchronized (this) {
+            task = this.pending.poll();
+            if (task == null) {
+                this.running--;
+                return;
+            }
+        }
+        submit(task);
+    }
+}
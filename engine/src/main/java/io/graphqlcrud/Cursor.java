@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Position of a row for keyset pagination, the values of the identity columns of the row in key order
+ * as a JSON array, encoded with URL safe base64. Clients can build one from the ID fields of the last row
+ * they have seen, like <code>["CST01002"]</code> becomes <code>WyJDU1QwMTAwMiJd</code>.
+ */
+public final class Cursor {
+    /**
+     * Field of the entity types with a key that gives the cursor of each row
+     */
+    public static final String FIELD = "_cursor";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<List<Object>> LIST = new TypeReference<List<Object>>() {};
+
+    private Cursor() {
+    }
+
+    public static String encode(List<?> values) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(MAPPER.writeValueAsBytes(values));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Failed to encode cursor for " + values, e);
+        }
+    }
+
+    public static List<Object> decode(String cursor) {
+        try {
+            return MAPPER.readValue(Base64.getUrlDecoder().decode(cursor), LIST);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor, e);
+        }
+    }
+}
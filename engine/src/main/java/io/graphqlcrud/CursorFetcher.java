@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+
+/**
+ * The {@link Cursor} of a row, made from its key columns, to page after or before it
+ */
+public class CursorFetcher implements DataFetcher<String> {
+    private final List<String> identityColumns;
+
+    /**
+     * @param identityColumns key columns of the entity, in the order of its fields
+     */
+    public CursorFetcher(List<String> identityColumns) {
+        this.identityColumns = Collections.unmodifiableList(new ArrayList<>(identityColumns));
+    }
+
+    @Override
+    public String get(DataFetchingEnvironment environment) throws Exception {
+        Object source = environment.getSource();
+        if (source == null) {
+            return null;
+        }
+        ResultSetRow rs = null;
+        if (source instanceof ResultSetList) {
+            rs = ((ResultSetList) source).get();
+            if (rs == null) {
+                return null;
+            }
+        } else if (source instanceof ResultSetRow) {
+            rs = (ResultSetRow)source;
+        } else if (source instanceof ResultSet){
+            rs = new ResultSetRow((ResultSet)source, null);
+        }
+        List<Object> values = new ArrayList<>(this.identityColumns.size());
+        for (String column : this.identityColumns) {
+            values.add(RowFetcher.key(rs, source, column));
+        }
+        return Cursor.encode(values);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.conf.ParamType;
+import org.jooq.conf.Settings;
+import org.jooq.impl.DSL;
+
+/**
+ * Shared {@link DSLContext} per {@link SQLDialect}, these are only used to build and render the SQL which
+ * is thread safe, so there is no need to create a new configuration for every query.
+ */
+public class DSLContexts {
+    private static final Map<String, DSLContext> CONTEXTS;
+
+    static {
+        // jOOQ 3.14's AbstractField creates a Val in its static initializer, and Val extends AbstractField.
+        // The first requests built concurrently deadlock on the two class initialization locks: a thread
+        // starting with DSL.field holds AbstractField and waits for Val, one starting with a select holds
+        // Val, from the DSL.zero() of Limit, and waits for AbstractField. Both builders get their context
+        // here first, so initialize them once here.
+        DSL.inline(0);
+
+        Map<String, DSLContext> contexts = new HashMap<>();
+        for (SQLDialect dialect : SQLDialect.values()) {
+            contexts.put(dialect.name(), DSL.using(dialect, settings()));
+        }
+        CONTEXTS = Collections.unmodifiableMap(contexts);
+    }
+
+    /**
+     * Settings tuned for rendering throughput; the SQL is never executed through jOOQ.
+     */
+    static Settings settings() {
+        return new Settings()
+                .withRenderFormatted(false)
+                .withParamType(ParamType.INDEXED)
+                .withExecuteLogging(false)
+                .withReflectionCaching(true)
+                .withAttachRecords(false);
+    }
+
+    /**
+     * @param dialect name of the {@link SQLDialect}
+     */
+    public static DSLContext get(String dialect) {
+        DSLContext create = CONTEXTS.get(dialect);
+        if (create == null) {
+            throw new IllegalArgumentException("Unknown SQL dialect " + dialect);
+        }
+        return create;
+    }
+}
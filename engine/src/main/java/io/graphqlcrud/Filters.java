@@ -28,7 +28,11 @@ public class Filters {
     public static GraphQLInputObjectType.Builder pageInputBuilder() {
         return GraphQLInputObjectType.newInputObject().name("PageRequest")
                 .field(GraphQLInputObjectField.newInputObjectField().name("limit").type(Scalars.GraphQLInt))
-                .field(GraphQLInputObjectField.newInputObjectField().name("offset").type(Scalars.GraphQLInt));
+                .field(GraphQLInputObjectField.newInputObjectField().name("offset").type(Scalars.GraphQLInt))
+                .field(GraphQLInputObjectField.newInputObjectField().name("after").type(Scalars.GraphQLString)
+                        .description("Cursor of the row to start after, see the _cursor field, rows come in ascending key order"))
+                .field(GraphQLInputObjectField.newInputObjectField().name("before").type(Scalars.GraphQLString)
+                        .description("Cursor of the row to end before, the limit counts back from it, rows come in ascending key order"));
     }
 
     public static GraphQLInputObjectType.Builder stringInputBuilder() {
@@ -87,7 +91,8 @@ public class Filters {
     public static GraphQLInputObjectType.Builder orderByInputBuilder() {
         return GraphQLInputObjectType.newInputObject().name("OrderByInput")
                 .field(GraphQLInputObjectField.newInputObjectField().name("field").type(GraphQLNonNull.nonNull(Scalars.GraphQLString)))
-                .field(GraphQLInputObjectField.newInputObjectField().name("order").type(GraphQLTypeReference.typeRef("SortDirectionEnum")).defaultValue("ASC"));
+                .field(GraphQLInputObjectField.newInputObjectField().name("order").type(GraphQLTypeReference.typeRef("SortDirectionEnum")).defaultValue("ASC"))
+                .field(GraphQLInputObjectField.newInputObjectField().name("nulls").type(GraphQLTypeReference.typeRef("NullsOrderEnum")));
     }
 
     public static GraphQLEnumType.Builder sortDirectionEnumBuilder() {
@@ -95,4 +100,10 @@ public class Filters {
                 .value("ASC")
                 .value("DESC");
     }
+
+    public static GraphQLEnumType.Builder nullsOrderEnumBuilder() {
+        return GraphQLEnumType.newEnum().name("NullsOrderEnum")
+                .value("FIRST")
+                .value("LAST");
+    }
 }
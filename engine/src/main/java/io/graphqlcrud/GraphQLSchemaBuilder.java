@@ -35,8 +35,9 @@ public class GraphQLSchemaBuilder {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(GraphQLSchemaBuilder.class);
     private static final JdbcTypeMap TYPE_MAP = new JdbcTypeMap();
-    private static final SQLDataFetcherFactory DEFAULT_DATA_FETCHER_FACTORY = new SQLDataFetcherFactory();
-    private static final RowFetcherFactory DEFAULT_ROW_FETCHER_FACTORY = new RowFetcherFactory();
+
+    // shared by the fetchers of the root fields, each of which keeps the metadata of its own field
+    private final QueryPlanCache planCache = new QueryPlanCache(QueryPlanCache.DEFAULT_MAX_SIZE);
 
     public static GraphQLSchema getSchema(Schema schema) {
         GraphQLSchemaBuilder b = new GraphQLSchemaBuilder();
@@ -61,6 +62,7 @@ public class GraphQLSchemaBuilder {
         builder.additionalType(Filters.booleanInputBuilder().build());
         builder.additionalType(Filters.floatInputBuilder().build());
         builder.additionalType(Filters.sortDirectionEnumBuilder().build());
+        builder.additionalType(Filters.nullsOrderEnumBuilder().build());
         builder.additionalType(Filters.orderByInputBuilder().build());
 
         //add FilterInputTypes
@@ -134,7 +136,11 @@ public class GraphQLSchemaBuilder {
 
         builder.codeRegistry(codeBuilder.build());
 
-        return builder.build();
+        GraphQLSchema graphQLSchema = builder.build();
+
+        // resolve the @sql directives up front, so that fetching never has to
+        SQLFieldMetadata.resolve(graphQLSchema);
+        return graphQLSchema;
     }
 
     private void addMutationForEntity(Entity entity, Builder mutationTypeBuilder, String name, GraphQLCodeRegistry.Builder codeBuilder) {
@@ -170,7 +176,7 @@ public class GraphQLSchemaBuilder {
 
         field.name(fieldName);
         mutationTypeBuilder.field(field.build());
-        codeBuilder.dataFetcher(FieldCoordinates.coordinates("MutationType", fieldName), DEFAULT_DATA_FETCHER_FACTORY);
+        codeBuilder.dataFetcher(FieldCoordinates.coordinates("MutationType", fieldName), new SQLDataFetcher(this.planCache));
     }
 
     private void addQueryOperationsForEntity(Entity entity, Builder queryTypeBuilder, GraphQLCodeRegistry.Builder codeBuilder) {
@@ -181,10 +187,10 @@ public class GraphQLSchemaBuilder {
             builder.name(name);
             builder.argument(GraphQLArgument.newArgument().name("page").type(GraphQLTypeReference.typeRef("PageRequest")).build());
             builder.argument(GraphQLArgument.newArgument().name("filter").type(GraphQLTypeReference.typeRef(StringUtil.capitalize(entity.getName().toLowerCase()) + "FilterInput")).build());
-            builder.argument(GraphQLArgument.newArgument().name("orderBy").type(GraphQLTypeReference.typeRef("OrderByInput")).build());
+            builder.argument(GraphQLArgument.newArgument().name("orderBy").type(GraphQLList.list(GraphQLTypeReference.typeRef("OrderByInput"))).build());
             builder.type(GraphQLList.list(new GraphQLTypeReference(entity.getName())));
             queryTypeBuilder.field(builder.build());
-            codeBuilder.dataFetcher(FieldCoordinates.coordinates("QueryType", name), DEFAULT_DATA_FETCHER_FACTORY);
+            codeBuilder.dataFetcher(FieldCoordinates.coordinates("QueryType", name), new SQLDataFetcher(this.planCache));
         }
 
         // get find(id) like method for entity
@@ -200,7 +206,7 @@ public class GraphQLSchemaBuilder {
                     builder.argument(argument.build());
                 });
                 queryTypeBuilder.field(builder.build());
-                codeBuilder.dataFetcher(FieldCoordinates.coordinates("QueryType", name), DEFAULT_DATA_FETCHER_FACTORY);
+                codeBuilder.dataFetcher(FieldCoordinates.coordinates("QueryType", name), new SQLDataFetcher(this.planCache));
             }
         }
     }
@@ -223,9 +229,21 @@ public class GraphQLSchemaBuilder {
                 }
             }
             fields.add(fieldBuilder);
-            codeBuilder.dataFetcher(FieldCoordinates.coordinates(entity.getName(), attr.getName()), DEFAULT_ROW_FETCHER_FACTORY);
+            // one fetcher per field, so it keeps the resolved metadata of its own field
+            codeBuilder.dataFetcher(FieldCoordinates.coordinates(entity.getName(), attr.getName()), new RowFetcher());
         });
 
+        // the cursor of the row, for the entities that can be paged by key
+        if (!entity.getPrimaryKeys().isEmpty()) {
+            List<String> identityColumns = new ArrayList<>();
+            entity.getAttributes().stream().filter(attr -> entity.isPartOfPrimaryKey(attr.getName()))
+                    .forEach(attr -> identityColumns.add(attr.getName()));
+            fields.add(GraphQLFieldDefinition.newFieldDefinition().name(Cursor.FIELD).type(Scalars.GraphQLString)
+                    .description("Cursor of the row, to page after or before it"));
+            codeBuilder.dataFetcher(FieldCoordinates.coordinates(entity.getName(), Cursor.FIELD),
+                    new CursorFetcher(identityColumns));
+        }
+
         // build fields based on relationships which reference to other types
         schema.getEntities().stream().forEach(e -> {
             e.getRelations().stream().forEach(relation -> {
@@ -238,7 +256,7 @@ public class GraphQLSchemaBuilder {
                     else {
                         fieldBuilder.argument(GraphQLArgument.newArgument().name("page").type(GraphQLTypeReference.typeRef("PageRequest")).build());
                         fieldBuilder.argument(GraphQLArgument.newArgument().name("filter").type(GraphQLTypeReference.typeRef(StringUtil.capitalize(e.getName().toLowerCase()) + "FilterInput")).build());
-                        fieldBuilder.argument(GraphQLArgument.newArgument().name("orderBy").type(GraphQLTypeReference.typeRef("OrderByInput")).build());
+                        fieldBuilder.argument(GraphQLArgument.newArgument().name("orderBy").type(GraphQLList.list(GraphQLTypeReference.typeRef("OrderByInput"))).build());
                         if (relation.isNullable()) {
                             fieldBuilder.type(GraphQLList.list(new GraphQLTypeReference(e.getName())));
                         } else {
@@ -249,7 +267,7 @@ public class GraphQLSchemaBuilder {
                             .primaryFields(new ArrayList<String>(relation.getKeyColumns().values()))
                             .foreignFields(new ArrayList<String>(relation.getReferencedKeyColumns().values())).build());
                     fields.add(fieldBuilder);
-                    codeBuilder.dataFetcher(FieldCoordinates.coordinates(entity.getName(), relation.getName()), DEFAULT_ROW_FETCHER_FACTORY);
+                    codeBuilder.dataFetcher(FieldCoordinates.coordinates(entity.getName(), relation.getName()), new RowFetcher());
                 }
             });
         });
@@ -280,7 +298,7 @@ public class GraphQLSchemaBuilder {
                 builder.type(TYPE_MAP.getAsGraphQLTypeStringForInput(attribute.getType()));
             }
             mutationFields.add(builder);
-            codeBuilder.dataFetcher(FieldCoordinates.coordinates(mutationEntity.getName(), attribute.getName()), DEFAULT_DATA_FETCHER_FACTORY);
+            codeBuilder.dataFetcher(FieldCoordinates.coordinates(mutationEntity.getName(), attribute.getName()), new SQLDataFetcher(this.planCache));
         });
         return mutationFields;
     }
@@ -15,15 +15,14 @@
  */
 package io.graphqlcrud;
 
-import graphql.schema.DataFetcher;
-import graphql.schema.DataFetcherFactory;
-import graphql.schema.DataFetcherFactoryEnvironment;
+import java.util.List;
 
-// This must be thread safe
-public class RowFetcherFactory implements DataFetcherFactory<Object> {
-    private static RowFetcher fetcher = new RowFetcher();
-    @Override
-    public DataFetcher<Object> get(DataFetcherFactoryEnvironment environment) {
-        return fetcher;
-    }
+import org.jooq.Field;
+import org.jooq.JSONEntry;
+
+/**
+ * Aggregates the rows of a relation into a JSON array of objects, one per row, see {@link JsonAggregations}
+ */
+public interface JsonAggregation {
+    Field<?> arrayAgg(List<JSONEntry<?>> entries);
 }
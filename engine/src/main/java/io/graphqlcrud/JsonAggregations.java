@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import static org.jooq.impl.DSL.jsonArrayAgg;
+import static org.jooq.impl.DSL.jsonObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jooq.JSON;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+
+/**
+ * {@link JsonAggregation} per {@link SQLDialect}. The rows are only read back as JSON text, so every
+ * dialect uses its cheapest native aggregate rather than a binary JSON type or an emulation.
+ */
+public class JsonAggregations {
+    /**
+     * Standard SQL json_arrayagg(json_object(key .. value ..)), as in H2
+     */
+    public static final JsonAggregation STANDARD = entries -> jsonArrayAgg(jsonObject(entries));
+
+    /**
+     * json_arrayagg(json_object(..)) of MySQL 5.7.22 and MariaDB 10.5, which jOOQ would otherwise emulate
+     * with group_concat, that is slower and cut at group_concat_max_len
+     */
+    public static final JsonAggregation NATIVE_ARRAYAGG = entries -> DSL.field("json_arrayagg({0})", JSON.class,
+            jsonObject(entries));
+
+    private static final Map<String, JsonAggregation> AGGREGATIONS = new ConcurrentHashMap<>();
+
+    static {
+        // json_agg(json_build_object(..)), the text is written as is, without a round trip through jsonb
+        AGGREGATIONS.put(SQLDialect.POSTGRES.name(), STANDARD);
+        AGGREGATIONS.put(SQLDialect.MYSQL.name(), NATIVE_ARRAYAGG);
+        AGGREGATIONS.put(SQLDialect.MARIADB.name(), NATIVE_ARRAYAGG);
+    }
+
+    /**
+     * @param dialect name of the {@link SQLDialect}, dialects without their own aggregation use {@link #STANDARD}
+     */
+    public static JsonAggregation get(String dialect) {
+        JsonAggregation aggregation = dialect == null ? null : AGGREGATIONS.get(dialect);
+        return aggregation == null ? STANDARD : aggregation;
+    }
+
+    /**
+     * Replaces the aggregation of a dialect, like one built on "for json path" for SQL Server. Register it
+     * before the first query, cached query plans keep the SQL they were built with
+     */
+    public static void register(String dialect, JsonAggregation aggregation) {
+        AGGREGATIONS.put(dialect, aggregation);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Read only row of a nested relation, as produced by the JSON aggregation of a sub query. All the
+ * rows of the same relation share the column names, and each row only keeps an array of values, which
+ * is lot cheaper than a {@link java.util.LinkedHashMap} per row.
+ */
+class JsonRow extends AbstractMap<String, Object> {
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final Object[] EMPTY = new Object[0];
+    // marks a column that some other row of the relation has, but this one does not
+    private static final Object MISSING = new Object();
+
+    private final Columns columns;
+    private Object[] values;
+
+    private JsonRow(Columns columns) {
+        this.columns = columns;
+        this.values = columns.size() == 0 ? EMPTY : new Object[columns.size()];
+        Arrays.fill(this.values, MISSING);
+    }
+
+    /**
+     * Parses the JSON array from a relation column with a streaming parser. Objects are read into
+     * {@link JsonRow}s, arrays into lists and scalars into same types {@link com.fasterxml.jackson.databind.ObjectMapper}
+     * would have used.
+     */
+    @SuppressWarnings("unchecked")
+    static List<Object> parseArray(byte[] data) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(data)) {
+            JsonToken token = parser.nextToken();
+            if (token != JsonToken.START_ARRAY) {
+                throw new IOException("Expected a JSON array for the relation, but found " + token);
+            }
+            return (List<Object>) read(parser, token, new Columns());
+        }
+    }
+
+    private static Object read(JsonParser parser, JsonToken token, Columns columns) throws IOException {
+        switch (token) {
+        case START_ARRAY:
+            List<Object> list = new ArrayList<>();
+            for (JsonToken t = parser.nextToken(); t != JsonToken.END_ARRAY; t = parser.nextToken()) {
+                list.add(read(parser, t, columns));
+            }
+            return list;
+        case START_OBJECT:
+            JsonRow row = new JsonRow(columns);
+            int position = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                int index = columns.indexOf(parser.getCurrentName(), position++);
+                row.set(index, read(parser, parser.nextToken(), columns.child(index)));
+            }
+            return row;
+        case VALUE_STRING:
+            return parser.getText();
+        case VALUE_NUMBER_INT:
+        case VALUE_NUMBER_FLOAT:
+            return parser.getNumberValue();
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+        case VALUE_NULL:
+            return null;
+        default:
+            throw new IOException("Unexpected JSON token " + token);
+        }
+    }
+
+    private void set(int index, Object value) {
+        if (index >= this.values.length) {
+            int length = this.values.length;
+            this.values = Arrays.copyOf(this.values, this.columns.size());
+            Arrays.fill(this.values, length, this.values.length, MISSING);
+        }
+        this.values[index] = value;
+    }
+
+    private Object value(int index) {
+        return index < this.values.length ? this.values[index] : MISSING;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Integer index = this.columns.index.get(key);
+        if (index == null) {
+            return null;
+        }
+        Object value = value(index);
+        return value == MISSING ? null : value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Integer index = this.columns.index.get(key);
+        return index != null && value(index) != MISSING;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Object value : this.values) {
+            if (value != MISSING) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String,Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<Entry<String,Object>>() {
+                    private int next = skip(0);
+
+                    private int skip(int index) {
+                        while (index < JsonRow.this.values.length && JsonRow.this.values[index] == MISSING) {
+                            index++;
+                        }
+                        return index;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.next < JsonRow.this.values.length;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int index = this.next;
+                        this.next = skip(index + 1);
+                        return new SimpleImmutableEntry<>(JsonRow.this.columns.names.get(index), JsonRow.this.values[index]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return JsonRow.this.size();
+            }
+        };
+    }
+
+    /**
+     * Column names shared by all the objects at the same level of the JSON document. Aggregated objects
+     * all come from same json_object expression, so keys are nearly always in the same order, which
+     * makes the positional check the common case.
+     */
+    private static final class Columns {
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> index = new HashMap<>();
+        private final List<Columns> children = new ArrayList<>();
+
+        int size() {
+            return this.names.size();
+        }
+
+        int indexOf(String name, int position) {
+            if (position < this.names.size() && this.names.get(position).equals(name)) {
+                return position;
+            }
+            Integer i = this.index.get(name);
+            if (i == null) {
+                i = this.names.size();
+                this.names.add(name);
+                this.index.put(name, i);
+                this.children.add(null);
+            }
+            return i;
+        }
+
+        Columns child(int index) {
+            Columns c = this.children.get(index);
+            if (c == null) {
+                c = new Columns();
+                this.children.set(index, c);
+            }
+            return c;
+        }
+    }
+}
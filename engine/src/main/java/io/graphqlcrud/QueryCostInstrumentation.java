@@ -0,0 +1,149 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import graphql.analysis.QueryTraverser;
+import graphql.analysis.QueryVisitorFieldEnvironment;
+import graphql.analysis.QueryVisitorStub;
+import graphql.execution.AbortExecutionException;
+import graphql.execution.ExecutionContext;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLType;
+import graphql.schema.GraphQLTypeUtil;
+
+/**
+ * Rejects the operations that would read too many rows, before any SQL is built. The cost of an
+ * operation is an estimate of the rows it reads: every entity field costs its rows, times one plus the
+ * cost of the relations below it. A to-one relation or a single row query reads one row, a list reads
+ * its page limit, or the default relation limit of {@link SQLContext#setDefaultRelationLimit(Integer)}
+ * for a relation, or the given number of rows for a query without a limit.
+ * <p>
+ * The cost is computed for every execution, with its variables, rather than at validation, since the
+ * validated documents are cached and the limits may come from the variables.
+ */
+public class QueryCostInstrumentation extends SimpleInstrumentation {
+    private final long maxCost;
+    private final int maxDepth;
+    private final int unboundedRows;
+    private final Integer defaultRelationLimit;
+
+    /**
+     * @param maxCost highest cost allowed, 0 for no limit
+     * @param maxDepth deepest nesting of fields allowed, 0 for no limit
+     * @param unboundedRows rows a list without a limit is assumed to read
+     * @param defaultRelationLimit limit of the to-many relations that do not ask for one, null for none
+     */
+    public QueryCostInstrumentation(long maxCost, int maxDepth, int unboundedRows, Integer defaultRelationLimit) {
+        this.maxCost = maxCost;
+        this.maxDepth = maxDepth;
+        this.unboundedRows = unboundedRows;
+        this.defaultRelationLimit = defaultRelationLimit;
+    }
+
+    @Override
+    public InstrumentationContext<graphql.ExecutionResult> beginExecuteOperation(
+            InstrumentationExecuteOperationParameters parameters) {
+        ExecutionContext context = parameters.getExecutionContext();
+        QueryTraverser traverser = QueryTraverser.newQueryTraverser()
+                .schema(context.getGraphQLSchema())
+                .document(context.getDocument())
+                .operationName(context.getOperationDefinition().getName())
+                .variables(context.getVariables())
+                .build();
+        Map<QueryVisitorFieldEnvironment, Long> costs = new HashMap<>();
+        int[] depth = new int[1];
+        traverser.visitPostOrder(new QueryVisitorStub() {
+            @Override
+            public void visitField(QueryVisitorFieldEnvironment env) {
+                long cost = cost(env, costs.getOrDefault(env, 0L));
+                costs.merge(env.getParentEnvironment(), cost, QueryCostInstrumentation::add);
+                depth[0] = Math.max(depth[0], depth(env));
+            }
+        });
+        if (this.maxDepth > 0 && depth[0] > this.maxDepth) {
+            throw new AbortExecutionException("Query depth " + depth[0] + " exceeds the maximum of " + this.maxDepth);
+        }
+        long cost = costs.getOrDefault(null, 0L);
+        if (this.maxCost > 0 && cost > this.maxCost) {
+            throw new AbortExecutionException("Query cost " + cost + " exceeds the maximum of " + this.maxCost
+                    + ", ask for fewer rows with page limits or fewer nested relations");
+        }
+        return super.beginExecuteOperation(parameters);
+    }
+
+    /**
+     * Cost of a field, given the cost of the fields it selects
+     */
+    long cost(QueryVisitorFieldEnvironment env, long childCost) {
+        GraphQLFieldDefinition definition = env.getFieldDefinition();
+        GraphQLType type = GraphQLTypeUtil.unwrapNonNull(definition.getType());
+        if (env.isTypeNameIntrospectionField() || !(GraphQLTypeUtil.unwrapAll(type) instanceof GraphQLObjectType)) {
+            return 0;
+        }
+        long rows = 1;
+        if (GraphQLTypeUtil.isList(type)) {
+            Integer limit = limit(env.getArguments());
+            if (limit != null) {
+                rows = limit;
+            } else if (this.defaultRelationLimit != null && SQLFieldMetadata.of(
+                    env.getSchema().getCodeRegistry(), env.getFieldsContainer(), definition).isRelation()) {
+                rows = this.defaultRelationLimit;
+            } else {
+                rows = this.unboundedRows;
+            }
+        }
+        return multiply(rows, add(1, childCost));
+    }
+
+    private static Integer limit(Map<String, Object> arguments) {
+        Object page = arguments.get("page");
+        if (page instanceof Map) {
+            Object limit = ((Map<?, ?>) page).get("limit");
+            if (limit instanceof Number) {
+                return ((Number) limit).intValue();
+            }
+        }
+        return null;
+    }
+
+    private static int depth(QueryVisitorFieldEnvironment env) {
+        int depth = 0;
+        for (QueryVisitorFieldEnvironment e = env; e != null; e = e.getParentEnvironment()) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private static long add(long a, long b) {
+        long sum = a + b;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    private static long multiply(long a, long b) {
+        try {
+            return Math.multiplyExact(a, b);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.jooq.Param;
+
+/**
+ * Compiled SQL for a {@link QueryShape}, where every bind parameter refers to a slot in the shape. A
+ * plan can be executed for any query with the same shape by taking the values from its slots.
+ */
+public class QueryPlan {
+    private final String sql;
+    private final int[] slots;
+    // component of the literal in the slot, -1 for the literal itself, see QueryShape#paramName(Value, int)
+    private final int[] components;
+    private final List<Object> values;
+    private final Map<String, Integer> columnIndexes;
+
+    private QueryPlan(String sql, int[] slots, int[] components, List<Object> values, Map<String, Integer> columnIndexes) {
+        this.sql = sql;
+        this.slots = slots;
+        this.components = components;
+        this.values = values;
+        this.columnIndexes = columnIndexes;
+    }
+
+    /**
+     * Builds the plan from the visitor that scanned the query with the given shape. When some bind
+     * value is not traceable to a slot in the shape, the plan is only good for this query.
+     */
+    public static QueryPlan compile(SQLQueryBuilderVisitor visitor, QueryShape shape) {
+        String sql = visitor.getParameterizedSQL();
+        List<Object> values = visitor.getBindValues();
+        Map<String, Param<?>> params = visitor.getParams();
+        Map<String, Integer> columns = Collections.unmodifiableMap(new HashMap<>(visitor.getColumnIndexes()));
+        if (params.size() != values.size()) {
+            return new QueryPlan(sql, null, null, values, columns);
+        }
+
+        int[] slots = new int[values.size()];
+        int[] components = new int[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Param<?>> entry : params.entrySet()) {
+            int slot = QueryShape.slot(entry.getKey());
+            int component = QueryShape.component(entry.getKey());
+            if (slot < 0 || !Objects.equals(value(shape.getValues().get(slot), component), values.get(i))) {
+                return new QueryPlan(sql, null, null, values, columns);
+            }
+            slots[i] = slot;
+            components[i++] = component;
+        }
+        return new QueryPlan(sql, slots, components, null, columns);
+    }
+
+    private static Object value(Object literal, int component) {
+        if (component < 0) {
+            return literal;
+        }
+        List<Object> values = Cursor.decode(literal.toString());
+        return component < values.size() ? values.get(component) : null;
+    }
+
+    public String getSQL() {
+        return this.sql;
+    }
+
+    /**
+     * JDBC ordinal of each projected column, by field name
+     */
+    public Map<String, Integer> getColumnIndexes() {
+        return this.columnIndexes;
+    }
+
+    public boolean isReusable() {
+        return this.slots != null;
+    }
+
+    public List<Object> getBindValues(QueryShape shape) {
+        if (this.slots == null) {
+            return this.values;
+        }
+        List<Object> result = new ArrayList<>(this.slots.length);
+        List<Object> decoded = null;
+        int decodedSlot = -1;
+        for (int i = 0; i < this.slots.length; i++) {
+            Object literal = shape.getValues().get(this.slots[i]);
+            if (this.components[i] < 0) {
+                result.add(literal);
+                continue;
+            }
+            // components of one literal are next to each other, decode it once for all of them
+            if (decodedSlot != this.slots[i]) {
+                decoded = Cursor.decode(literal.toString());
+                decodedSlot = this.slots[i];
+            }
+            if (this.components[i] >= decoded.size()) {
+                throw new IllegalArgumentException("Invalid cursor " + literal);
+            }
+            result.add(decoded.get(this.components[i]));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import java.util.Objects;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import graphql.schema.GraphQLFieldDefinition;
+
+// This must be thread safe, it is shared by all the requests
+public class QueryPlanCache {
+    public static final long DEFAULT_MAX_SIZE = 1000;
+
+    private final Cache<Key, QueryPlan> cache;
+
+    private static final class Key {
+        private final String variant;
+        private final GraphQLFieldDefinition definition;
+        private final String shape;
+        private final int hash;
+
+        Key(String variant, GraphQLFieldDefinition definition, String shape) {
+            this.variant = variant;
+            this.definition = definition;
+            this.shape = shape;
+            this.hash = Objects.hash(variant, System.identityHashCode(definition), shape);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            // definitions are compared by identity so that plans never cross schemas
+            return this.definition == other.definition && Objects.equals(this.variant, other.variant)
+                    && this.shape.equals(other.shape);
+        }
+    }
+
+    public QueryPlanCache(long maxSize) {
+        this.cache = Caffeine.newBuilder().maximumSize(maxSize).recordStats().build();
+    }
+
+    /**
+     * @param variant dialect and other settings the SQL depends on, see {@link SQLContext#getPlanVariant()}
+     */
+    public QueryPlan get(String variant, GraphQLFieldDefinition definition, QueryShape shape) {
+        return this.cache.getIfPresent(new Key(variant, definition, shape.getKey()));
+    }
+
+    public void put(String variant, GraphQLFieldDefinition definition, QueryShape shape, QueryPlan plan) {
+        if (plan.isReusable()) {
+            this.cache.put(new Key(variant, definition, shape.getKey()), plan);
+        }
+    }
+
+    public long getHitCount() {
+        return this.cache.stats().hitCount();
+    }
+
+    public long getMissCount() {
+        return this.cache.stats().missCount();
+    }
+
+    public long getEvictionCount() {
+        return this.cache.stats().evictionCount();
+    }
+
+    public long size() {
+        return this.cache.estimatedSize();
+    }
+
+    public void clear() {
+        this.cache.invalidateAll();
+    }
+}
@@ -16,7 +16,9 @@
 package io.graphqlcrud;
 
 import java.util.List;
+import java.util.Map;
 
+import graphql.execution.ConditionalNodes;
 import graphql.language.Argument;
 import graphql.language.Field;
 import graphql.language.Selection;
@@ -29,6 +31,8 @@ import graphql.schema.GraphQLTypeUtil;
 import graphql.schema.SelectedField;
 
 public class QueryScanner {
+    private static final ConditionalNodes CONDITIONAL_NODES = new ConditionalNodes();
+
     private QueryVisitor visitor;
     private DataFetchingEnvironment environment;
 
@@ -59,6 +63,13 @@ public class QueryScanner {
             List<Selection> fields = field.getSelectionSet().getSelections();
             for (int i = 0; i < fields.size(); i++) {
                 Field f = (Field)fields.get(i);
+                if (isIntrospection(f.getName())) {
+                    // like __typename, answered by graphql from the schema
+                    continue;
+                }
+                if (!isIncluded(f, this.environment.getVariables())) {
+                    continue;
+                }
                 String name = f.getAlias() != null ? f.getAlias() : f.getName();
                 String fieldName = fqn == null ? name : fqn+"/"+name;
                 SelectedField childField = this.environment.getSelectionSet().getField(fieldName);
@@ -93,6 +104,17 @@ public class QueryScanner {
         }
     }
 
+    static boolean isIntrospection(String fieldName) {
+        return fieldName.startsWith("__");
+    }
+
+    /**
+     * False when an @include or @skip directive of the field leaves it out, given the variables of the operation
+     */
+    static boolean isIncluded(Field field, Map<String, Object> variables) {
+        return field.getDirectives().isEmpty() || CONDITIONAL_NODES.shouldInclude(variables, field.getDirectives());
+    }
+
     private void scanArguments(Field field, GraphQLFieldDefinition definition, GraphQLType type) {
         List<Argument> args = field.getArguments();
         if (args != null && !args.isEmpty()) {
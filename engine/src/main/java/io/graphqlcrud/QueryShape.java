@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import graphql.language.Argument;
+import graphql.language.ArrayValue;
+import graphql.language.AstPrinter;
+import graphql.language.BooleanValue;
+import graphql.language.Directive;
+import graphql.language.EnumValue;
+import graphql.language.Field;
+import graphql.language.FloatValue;
+import graphql.language.IntValue;
+import graphql.language.NullValue;
+import graphql.language.ObjectField;
+import graphql.language.ObjectValue;
+import graphql.language.Selection;
+import graphql.language.StringValue;
+import graphql.language.Value;
+import graphql.language.VariableReference;
+
+/**
+ * Normalized form of a root field where every literal argument value is replaced by a slot. Two
+ * queries that only differ in their argument values have the same shape, thus can share same SQL.
+ * The fields left out by @include or @skip are not part of the shape, given the variables of the query.
+ */
+public class QueryShape {
+    private static final String PARAM_PREFIX = "gqlc";
+    private static final char COMPONENT_SEPARATOR = '_';
+
+    private final String key;
+    private final List<Object> values = new ArrayList<>();
+    private final Map<Value<?>, Integer> slots = new IdentityHashMap<>();
+    private final Map<String, Object> variables;
+
+    private QueryShape(Field field, Map<String, Object> variables) {
+        this.variables = variables;
+        StringBuilder sb = new StringBuilder();
+        walk(field, sb);
+        this.key = sb.toString();
+    }
+
+    /**
+     * Shape of a field without variables, an @include or @skip of the field can only use literals
+     */
+    public static QueryShape of(Field field) {
+        return new QueryShape(field, Collections.emptyMap());
+    }
+
+    /**
+     * @param variables coerced variables of the operation, see {@link graphql.schema.DataFetchingEnvironment#getVariables()}
+     */
+    public static QueryShape of(Field field, Map<String, Object> variables) {
+        return new QueryShape(field, variables);
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    /**
+     * Literal values of the query, in slot order
+     */
+    public List<Object> getValues() {
+        return this.values;
+    }
+
+    /**
+     * Name of the bind parameter to be used for given literal, null if the value is not part of this shape
+     */
+    public String paramName(Value<?> value) {
+        Integer slot = this.slots.get(value);
+        return slot == null ? null : PARAM_PREFIX + slot;
+    }
+
+    /**
+     * Name of the bind parameter for one of the values packed in a literal, like the key values of a
+     * {@link Cursor}. Null if the value is not part of this shape
+     */
+    public String paramName(Value<?> value, int component) {
+        String name = paramName(value);
+        return name == null ? null : name + COMPONENT_SEPARATOR + component;
+    }
+
+    /**
+     * Slot number of a parameter name created by {@link #paramName(Value)}, or -1
+     */
+    static int slot(String paramName) {
+        if (paramName == null || !paramName.startsWith(PARAM_PREFIX)) {
+            return -1;
+        }
+        int end = paramName.indexOf(COMPONENT_SEPARATOR);
+        try {
+            return Integer.parseInt(paramName.substring(PARAM_PREFIX.length(), end < 0 ? paramName.length() : end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Component of a parameter name created by {@link #paramName(Value, int)}, or -1 when the parameter
+     * is the whole literal
+     */
+    static int component(String paramName) {
+        int start = paramName == null ? -1 : paramName.indexOf(COMPONENT_SEPARATOR);
+        if (start < 0) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(paramName.substring(start + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void walk(Field field, StringBuilder sb) {
+        if (field.getAlias() != null) {
+            sb.append(field.getAlias()).append(':');
+        }
+        sb.append(field.getName());
+
+        List<Argument> args = field.getArguments();
+        if (args != null && !args.isEmpty()) {
+            sb.append('(');
+            for (Argument arg : args) {
+                sb.append(arg.getName()).append(':');
+                if (arg.getName().equals("orderBy")) {
+                    // the sort columns are rendered into the SQL, they are structure and not values
+                    sb.append(AstPrinter.printAstCompact(arg.getValue()));
+                } else {
+                    walk(arg.getValue(), sb);
+                }
+                sb.append(',');
+            }
+            sb.append(')');
+        }
+
+        // @include and @skip are resolved by leaving the fields out, other directives are rare, keep them verbatim
+        for (Directive d : field.getDirectives()) {
+            if (!d.getName().equals("include") && !d.getName().equals("skip")) {
+                sb.append(AstPrinter.printAstCompact(d));
+            }
+        }
+
+        if (field.getSelectionSet() != null) {
+            sb.append('{');
+            for (Selection<?> selection : field.getSelectionSet().getSelections()) {
+                if (selection instanceof Field) {
+                    if (!QueryScanner.isIncluded((Field) selection, this.variables)) {
+                        continue;
+                    }
+                    walk((Field)selection, sb);
+                } else {
+                    sb.append(AstPrinter.printAstCompact(selection));
+                }
+                sb.append(',');
+            }
+            sb.append('}');
+        }
+    }
+
+    private void walk(Value<?> value, StringBuilder sb) {
+        if (value instanceof StringValue) {
+            slot(value, ((StringValue) value).getValue(), sb);
+        } else if (value instanceof IntValue) {
+            slot(value, ((IntValue) value).getValue(), sb);
+        } else if (value instanceof FloatValue) {
+            slot(value, ((FloatValue) value).getValue(), sb);
+        } else if (value instanceof BooleanValue) {
+            slot(value, ((BooleanValue) value).isValue(), sb);
+        } else if (value instanceof ArrayValue) {
+            sb.append('[');
+            for (Value<?> v : ((ArrayValue) value).getValues()) {
+                walk(v, sb);
+                sb.append(',');
+            }
+            sb.append(']');
+        } else if (value instanceof ObjectValue) {
+            sb.append('{');
+            for (ObjectField of : ((ObjectValue) value).getObjectFields()) {
+                sb.append(of.getName()).append(':');
+                walk(of.getValue(), sb);
+                sb.append(',');
+            }
+            sb.append('}');
+        } else if (value instanceof EnumValue) {
+            // enums drive the structure of the SQL (like sort direction), so they are part of the shape
+            sb.append(((EnumValue) value).getName());
+        } else if (value instanceof VariableReference) {
+            sb.append('$').append(((VariableReference) value).getName());
+        } else if (value instanceof NullValue) {
+            sb.append("null");
+        } else {
+            sb.append(AstPrinter.printAstCompact(value));
+        }
+    }
+
+    private void slot(Value<?> node, Object value, StringBuilder sb) {
+        this.slots.put(node, this.values.size());
+        this.values.add(value);
+        sb.append('?');
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.dataloader.BatchLoader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLFieldsContainer;
+
+/**
+ * Fetches the rows of a relation field for many parents with one query, "where reference keys in
+ * (parent keys)", and hands each parent its own rows, in the order of the query. The data loader calls
+ * this once per level of the query, with the keys of all the parent rows read at that level.
+ */
+class RelationBatchLoader implements BatchLoader<List<Object>, Object> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RelationBatchLoader.class);
+
+    // keeps the IN list below the limits of the databases, Oracle allows a 1000 values
+    static final int MAX_BATCH_SIZE = 1000;
+
+    private final DataFetchingEnvironment environment;
+    private final SQLContext ctx;
+    private final SQLFieldMetadata metadata;
+
+    RelationBatchLoader(DataFetchingEnvironment environment, SQLFieldMetadata metadata, SQLContext ctx) {
+        this.environment = environment;
+        this.ctx = ctx;
+        this.metadata = metadata;
+    }
+
+    @Override
+    public CompletionStage<List<Object>> load(List<List<Object>> keys) {
+        try {
+            return CompletableFuture.completedFuture(fetch(keys));
+        } catch (Exception e) {
+            CompletableFuture<List<Object>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    private List<Object> fetch(List<List<Object>> keys) throws Exception {
+        long start = System.nanoTime();
+        SQLQueryBuilderVisitor visitor = new SQLQueryBuilderVisitor(this.ctx,
+                this.environment.getGraphQLSchema().getCodeRegistry(),
+                (GraphQLFieldsContainer) this.environment.getParentType());
+        visitor.setBatch(this.metadata.getReferenceKeys(), keys);
+        QueryScanner scanner = new QueryScanner(this.environment, visitor);
+        scanner.scanQuery(this.environment.getField(), this.environment.getFieldDefinition(), null, true);
+        String sql = this.ctx.isBindParameters() ? visitor.getParameterizedSQL() : visitor.getSQL();
+        List<Object> values = this.ctx.isBindParameters() ? visitor.getBindValues() : Collections.emptyList();
+        String entity = this.metadata.getEntityType().getName();
+        SQLMetrics metrics = this.ctx.getMetrics();
+        SlowQueryLog slowQueries = this.ctx.getSlowQueryLog();
+        String rootField = this.ctx.isMeasured() || slowQueries != null ? SQLContext.rootField(this.environment) : null;
+        metrics.buildTime(rootField, entity, System.nanoTime() - start);
+
+        Map<List<Object>, List<Object>> rows = new HashMap<>();
+        long elapsed;
+        long count;
+        this.ctx.acquire();
+        try {
+            Connection c = this.ctx.getConnection();
+            if (this.ctx.isBindParameters()) {
+                LOGGER.info("SQL Executed:" + sql + " with values " + values);
+                try (PreparedStatement stmt = c.prepareStatement(sql)) {
+                    SQLDataFetcher.bind(stmt, values);
+                    this.ctx.startStatement(stmt, entity);
+                    start = System.nanoTime();
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        elapsed = System.nanoTime() - start;
+                        count = read(rs, visitor, rows);
+                    } finally {
+                        this.ctx.endStatement(stmt);
+                    }
+                }
+            } else {
+                LOGGER.info("SQL Executed:" + sql);
+                try (Statement stmt = c.createStatement()) {
+                    this.ctx.startStatement(stmt, entity);
+                    start = System.nanoTime();
+                    try (ResultSet rs = stmt.executeQuery(sql)) {
+                        elapsed = System.nanoTime() - start;
+                        count = read(rs, visitor, rows);
+                    } finally {
+                        this.ctx.endStatement(stmt);
+                    }
+                }
+            }
+        } finally {
+            this.ctx.release();
+        }
+        metrics.executeTime(rootField, entity, elapsed);
+        metrics.rowsFetched(rootField, entity, count);
+        if (slowQueries != null && slowQueries.isSlow(elapsed)) {
+            slowQueries.record(this.environment.getOperationDefinition().getName(), rootField, sql, values, count,
+                    elapsed);
+        }
+
+        // the page of each parent, when the SQL could not do it
+        Integer offset = visitor.getBatchOffset();
+        Integer limit = visitor.getBatchLimit();
+        List<Object> results = new ArrayList<>(keys.size());
+        for (List<Object> key : keys) {
+            List<Object> children = page(rows.getOrDefault(key, Collections.emptyList()), offset, limit);
+            if (visitor.isBatchBackward()) {
+                // the rows before a cursor were read from the cursor backwards
+                children = new ArrayList<>(children);
+                Collections.reverse(children);
+            }
+            if (this.metadata.isToOne()) {
+                results.add(children.isEmpty() ? null : children.get(0));
+            } else {
+                results.add(children);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Reads the rows into maps keyed by the field names, like the rows of a JSON relation, grouped by
+     * their reference key values
+     */
+    private long read(ResultSet rs, SQLQueryBuilderVisitor visitor, Map<List<Object>, List<Object>> rows)
+            throws Exception {
+        long count = 0;
+        Map<String, Integer> columns = visitor.getColumnIndexes();
+        int[] keyColumns = new int[this.metadata.getReferenceKeys().size()];
+        for (int i = 0; i < keyColumns.length; i++) {
+            keyColumns[i] = columns.get(this.metadata.getReferenceKeys().get(i));
+        }
+        boolean[] relations = new boolean[columns.size() + 1];
+        visitor.getRelationColumns().forEach(name -> relations[columns.get(name)] = true);
+
+        ResultSetMetaData rsmd = rs.getMetaData();
+        String[] labels = new String[rsmd.getColumnCount() + 1];
+        for (int i = 1; i < labels.length; i++) {
+            labels[i] = rsmd.getColumnLabel(i);
+        }
+
+        while (rs.next()) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (int i = 1; i < labels.length; i++) {
+                if (i < relations.length && relations[i]) {
+                    byte[] data = rs.getBytes(i);
+                    row.put(labels[i], data == null ? Collections.emptyList() : JsonRow.parseArray(data));
+                } else {
+                    row.put(labels[i], rs.getObject(i));
+                }
+            }
+            List<Object> key = new ArrayList<>(keyColumns.length);
+            for (int column : keyColumns) {
+                key.add(normalize(rs.getObject(column)));
+            }
+            rows.computeIfAbsent(key, k -> new ArrayList<>()).add(row);
+            count++;
+        }
+        return count;
+    }
+
+    private static List<Object> page(List<Object> rows, Integer offset, Integer limit) {
+        int from = offset == null ? 0 : Math.min(offset, rows.size());
+        int to = limit == null ? rows.size() : Math.min(from + limit, rows.size());
+        return from == 0 && to == rows.size() ? rows : rows.subList(from, to);
+    }
+
+    /**
+     * Same key read from a JDBC column and from a JSON document may come as different number types, like
+     * Integer and Long, so numbers are compared by value
+     */
+    static Object normalize(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof BigInteger) {
+            BigInteger v = (BigInteger) value;
+            return v.bitLength() < 64 ? (Object) v.longValue() : new BigDecimal(v);
+        }
+        if (value instanceof BigDecimal) {
+            BigDecimal v = ((BigDecimal) value).stripTrailingZeros();
+            if (v.scale() <= 0 && v.precision() - v.scale() < 19) {
+                return v.longValueExact();
+            }
+            return v;
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return normalize(new BigDecimal(value.toString()));
+        }
+        return value;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+/**
+ * How the rows of a relation field are fetched, see {@link SQLContext#setRelationStrategy(RelationStrategy)}
+ */
+public enum RelationStrategy {
+    /**
+     * Correlated sub query in the select of the parent, that aggregates the rows into a JSON array. One
+     * statement for the whole query.
+     */
+    SUBQUERY,
+    /**
+     * Same JSON aggregation as {@link #SUBQUERY}, joined to the parent as "left join lateral (...) on true".
+     * Needs a database with lateral joins, like Postgres.
+     */
+    LATERAL,
+    /**
+     * Parent rows first, then the rows of all the parents in one "where key in (...)" query per level,
+     * dispatched through a {@link org.dataloader.DataLoader} and matched to their parent in memory.
+     */
+    BATCH;
+}
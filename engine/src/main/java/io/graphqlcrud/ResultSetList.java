@@ -17,34 +17,155 @@ package io.graphqlcrud;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.AbstractList;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.function.LongConsumer;
 
 class ResultSetList extends AbstractList<Object> {
     private ResultSet rs;
+    private ResultSetRow row;
     private Iterator<Object> itr;
-    private Object current;
+    private ResultSetRow current;
     private boolean advanceCursor;
+    private SQLContext releaseOnDrain;
+    private LongConsumer rowCount;
+    private long rows;
+    private Runnable onDrain;
+    private boolean drained;
+    // the only row asked for, read when the statement was executed
+    private boolean detached;
 
     ResultSetList(ResultSet rs, boolean advanceCursor){
+        this(rs, null, advanceCursor);
+    }
+
+    /**
+     * @param columns ordinal of the projected columns by field name, see {@link SQLQueryBuilderVisitor#getColumnIndexes()}
+     */
+    ResultSetList(ResultSet rs, Map<String, Integer> columns, boolean advanceCursor){
         this.rs = rs;
+        this.row = new ResultSetRow(rs, columns);
         this.advanceCursor = advanceCursor;
     }
 
-    public Object get() {
+    ResultSet getResultSet() {
+        return this.rs;
+    }
+
+    /**
+     * Calls {@link SQLContext#release()} once all the rows are read, right away when they already are
+     */
+    void releaseOnDrain(SQLContext ctx) throws SQLException {
+        if (this.drained) {
+            ctx.release();
+        } else {
+            this.releaseOnDrain = ctx;
+        }
+    }
+
+    /**
+     * Runs the action once all the rows are read and the results closed, right away when they already are
+     */
+    void onDrain(Runnable action) {
+        if (this.drained) {
+            action.run();
+        } else {
+            this.onDrain = this.onDrain == null ? action : chain(this.onDrain, action);
+        }
+    }
+
+    private static Runnable chain(Runnable first, Runnable second) {
+        return () -> {
+            try {
+                first.run();
+            } finally {
+                second.run();
+            }
+        };
+    }
+
+    /**
+     * Reads the first row into a copy and closes the results, for a field that returns a single row. The
+     * statement does not wait for the response to be written that way, see {@link #get()}
+     */
+    void detachFirstRow() throws SQLException {
+        if (this.rs != null && !this.rs.isClosed() && this.rs.next()) {
+            this.rows++;
+            this.current = this.row.detach();
+        }
+        this.detached = true;
+        drain();
+    }
+
+    private void drain() throws SQLException {
+        if (this.drained) {
+            return;
+        }
+        this.drained = true;
+        reportRowCount();
+        try {
+            // release the cursor as soon as it is drained, the context only closes what is left
+            if (this.rs != null) {
+                Statement stmt = this.rs.getStatement();
+                this.rs.close();
+                if (stmt != null) {
+                    stmt.close();
+                }
+            }
+        } finally {
+            Runnable action = this.onDrain;
+            this.onDrain = null;
+            SQLContext ctx = this.releaseOnDrain;
+            this.releaseOnDrain = null;
+            try {
+                if (ctx != null) {
+                    ctx.release();
+                }
+            } finally {
+                if (action != null) {
+                    action.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Called with the number of rows read once all the rows are read, or the first one when only that
+     * one is asked for, see {@link #get()}
+     */
+    void onRowCount(LongConsumer listener) {
+        this.rowCount = this.rowCount == null ? listener : this.rowCount.andThen(listener);
+    }
+
+    private void reportRowCount() {
+        if (this.rowCount != null) {
+            LongConsumer listener = this.rowCount;
+            this.rowCount = null;
+            listener.accept(this.rows);
+        }
+    }
+
+    public ResultSetRow get() {
+        if (this.detached) {
+            return this.current;
+        }
         if (this.itr == null) {
             this.itr = iterator();
             if (!this.itr.hasNext()) {
                 return null;
             }
-            this.current = this.itr.next();
+            this.current = (ResultSetRow)this.itr.next();
+            // a single row is read, the results are not drained
+            reportRowCount();
         }
         return this.current;
     }
 
     @Override
     public Object get(int index) {
-        return this.rs;
+        return this.row;
     }
 
     @Override
@@ -55,12 +176,15 @@ class ResultSetList extends AbstractList<Object> {
             @Override
             public boolean hasNext() {
                 try {
-                    if (ResultSetList.this.rs.isClosed()) {
+                    if (ResultSetList.this.rs == null || ResultSetList.this.rs.isClosed()) {
                         return false;
                     }
                     boolean hasNext = ResultSetList.this.advanceCursor ? ResultSetList.this.rs.next() : true;
+                    if (hasNext && ResultSetList.this.advanceCursor) {
+                        ResultSetList.this.rows++;
+                    }
                     if (!hasNext) {
-                        ResultSetList.this.rs.close();
+                        drain();
                     }
                     ResultSetList.this.advanceCursor = true;
                     return hasNext;
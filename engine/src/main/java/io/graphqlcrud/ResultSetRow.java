@@ -0,0 +1,161 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Current row of a {@link ResultSetList}. Columns are read by the ordinal the query builder projected
+ * them at, and the JDBC type of each column is looked up once for the whole result. A detached row holds
+ * a copy of the values instead, see {@link #detach()}.
+ */
+class ResultSetRow {
+    private final ResultSet rs;
+    private final Map<String, Integer> columns;
+    private int[] types;
+    // values of a detached row by ordinal, and the ordinal of the column labels for the lookups by name
+    private Object[] values;
+    private Map<String, Integer> labels;
+
+    /**
+     * @param columns ordinal of the projected columns by field name, null to read by label
+     */
+    ResultSetRow(ResultSet rs, Map<String, Integer> columns) {
+        this.rs = rs;
+        this.columns = columns;
+    }
+
+    ResultSet getResultSet() {
+        return this.rs;
+    }
+
+    /**
+     * Copy of the current row, that can still be read once the results are closed
+     */
+    ResultSetRow detach() throws SQLException {
+        ResultSetMetaData metadata = this.rs.getMetaData();
+        ResultSetRow row = new ResultSetRow(null, this.columns);
+        row.values = new Object[metadata.getColumnCount() + 1];
+        row.labels = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 1; i < row.values.length; i++) {
+            row.labels.putIfAbsent(metadata.getColumnLabel(i), i);
+            switch (metadata.getColumnType(i)) {
+            case Types.CLOB:
+            case Types.NCLOB:
+                row.values[i] = this.rs.getString(i);
+                break;
+            case Types.BLOB:
+                row.values[i] = this.rs.getBytes(i);
+                break;
+            default:
+                row.values[i] = getObject(i);
+            }
+        }
+        return row;
+    }
+
+    private int column(String name) {
+        if (this.values != null) {
+            Integer column = this.columns == null ? null : this.columns.get(name);
+            if (column == null) {
+                column = this.labels.get(name);
+            }
+            if (column == null) {
+                throw new IllegalArgumentException("No column " + name + " in the row");
+            }
+            return column;
+        }
+        if (this.columns == null) {
+            return -1;
+        }
+        Integer column = this.columns.get(name);
+        return column == null ? -1 : column;
+    }
+
+    byte[] getBytes(String name) throws SQLException {
+        int column = column(name);
+        if (this.values != null) {
+            Object value = this.values[column];
+            if (value == null || value instanceof byte[]) {
+                return (byte[]) value;
+            }
+            // JSON read as text, or as a driver specific object like PGobject
+            return value.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        return column < 0 ? this.rs.getBytes(name) : this.rs.getBytes(column);
+    }
+
+    Object getObject(String name) throws SQLException {
+        int column = column(name);
+        if (this.values != null) {
+            return this.values[column];
+        }
+        if (column < 0) {
+            return this.rs.getObject(name);
+        }
+        return getObject(column);
+    }
+
+    private Object getObject(int column) throws SQLException {
+        if (this.types == null) {
+            this.types = types(this.rs.getMetaData());
+        }
+        switch (this.types[column]) {
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+        case Types.NCHAR:
+        case Types.NVARCHAR:
+            return this.rs.getString(column);
+        case Types.NUMERIC:
+        case Types.DECIMAL:
+            return this.rs.getBigDecimal(column);
+        case Types.INTEGER: {
+            int value = this.rs.getInt(column);
+            return this.rs.wasNull() ? null : (Object)value;
+        }
+        case Types.BIGINT: {
+            long value = this.rs.getLong(column);
+            return this.rs.wasNull() ? null : (Object)value;
+        }
+        case Types.DOUBLE:
+        case Types.FLOAT: {
+            double value = this.rs.getDouble(column);
+            return this.rs.wasNull() ? null : (Object)value;
+        }
+        case Types.BOOLEAN: {
+            boolean value = this.rs.getBoolean(column);
+            return this.rs.wasNull() ? null : (Object)value;
+        }
+        default:
+            return this.rs.getObject(column);
+        }
+    }
+
+    private static int[] types(ResultSetMetaData metadata) throws SQLException {
+        int[] types = new int[metadata.getColumnCount() + 1];
+        for (int i = 1; i < types.length; i++) {
+            types[i] = metadata.getColumnType(i);
+        }
+        return types;
+    }
+}
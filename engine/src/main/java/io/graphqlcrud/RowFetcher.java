@@ -16,22 +16,26 @@
 package io.graphqlcrud;
 
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
+import graphql.execution.instrumentation.dataloader.DataLoaderDispatcherInstrumentationState;
 import graphql.language.Field;
+import graphql.language.Selection;
 import graphql.schema.DataFetcher;
 import graphql.schema.DataFetchingEnvironment;
 import graphql.schema.GraphQLFieldDefinition;
-import graphql.schema.GraphQLObjectType;
-import graphql.schema.GraphQLType;
+import graphql.schema.GraphQLNamedType;
 
 // This must be thread safe, as it will be called by multiple threads at same time
 public class RowFetcher implements DataFetcher<Object> {
-    ObjectMapper mapper = new ObjectMapper();
+    // one fetcher per field, so the metadata of its field is resolved only once
+    private volatile SQLFieldMetadata metadata;
 
     @Override
     public Object get(DataFetchingEnvironment environment) throws Exception {
@@ -39,29 +43,43 @@ public class RowFetcher implements DataFetcher<Object> {
         if (source == null) {
             return null;
         }
-        ResultSet rs = null;
+        ResultSetRow rs = null;
         if (source instanceof ResultSetList) {
-            rs = (ResultSet)((ResultSetList) source).get();
+            rs = ((ResultSetList) source).get();
+            if (rs == null) {
+                return null;
+            }
+        } else if (source instanceof ResultSetRow) {
+            rs = (ResultSetRow)source;
         } else if (source instanceof ResultSet){
-            rs = (ResultSet)source;
+            rs = new ResultSetRow((ResultSet)source, null);
         }
         Field f = environment.getField();
-        String colName = SQLQueryBuilderVisitor.fieldName(f);
+        SQLFieldMetadata md = getMetadata(environment.getFieldDefinition());
+
+        if (md.isKeyOnly(f)) {
+            return keyOnly(f, md, rs, source);
+        }
+        if (md.isRelation() && isBatched(environment)) {
+            return load(environment, md, rs, source);
+        }
 
-        SQLDirective sqlDirective = SQLDirective.find(environment.getFieldDefinition().getDirectives());
         // this is link to another table
-        if (sqlDirective != null && rs != null){
-            GraphQLFieldDefinition definition = environment.getFieldDefinition();
-            GraphQLType type = definition.getType();
+        if (md.isRelation() && rs != null){
             byte[] data = rs.getBytes(f.getName());
+            SQLContext ctx = environment.getContext();
+            if (data != null && ctx != null && ctx.isMeasured()) {
+                ctx.getMetrics().jsonBytesParsed(SQLContext.rootField(environment), md.getEntityType().getName(), data.length);
+            }
             if (data != null) {
-                List<?> node = this.mapper.readValue(data, List.class);
-                if (type instanceof GraphQLObjectType) {
-                    return node.get(0);
+                // read with the streaming parser into compact rows, instead of a map tree
+                List<?> node = JsonRow.parseArray(data);
+                if (md.isToOne()) {
+                    return node.isEmpty() ? null : node.get(0);
                 }
                 return node;
             } else {
-                if (type instanceof GraphQLObjectType) {
+                if (md.isToOne()) {
                     return null;
                 } else {
                     return Collections.emptyList();
@@ -70,8 +88,88 @@ public class RowFetcher implements DataFetcher<Object> {
         }
         if (rs != null) {
             return rs.getObject(f.getName());
-        } else {
-            return ((Map<?,?>)source).get(colName);
         }
+        Object value = ((Map<?,?>)source).get(SQLQueryBuilderVisitor.fieldName(f));
+        // nested relations are always aggregated as arrays
+        if (md.isRelation() && md.isToOne() && value instanceof List) {
+            List<?> node = (List<?>)value;
+            return node.isEmpty() ? null : node.get(0);
+        }
+        return value;
+    }
+
+    /**
+     * To-one relation that only asks for its reference keys, made from the keys of the parent row
+     */
+    private static Map<String, Object> keyOnly(Field f, SQLFieldMetadata md, ResultSetRow rs, Object source)
+            throws Exception {
+        Object[] values = new Object[md.getKeys().size()];
+        for (int i = 0; i < values.length; i++) {
+            String column = md.getKeys().get(i);
+            values[i] = key(rs, source, column);
+            if (values[i] == null) {
+                return null;
+            }
+        }
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (Selection<?> selection : f.getSelectionSet().getSelections()) {
+            Field child = (Field)selection;
+            int index = md.getReferenceKeys().indexOf(child.getName());
+            if (index >= 0) {
+                row.put(SQLQueryBuilderVisitor.fieldName(child), values[index]);
+            }
+        }
+        return row;
+    }
+
+    private static boolean isBatched(DataFetchingEnvironment environment) {
+        SQLContext ctx = environment.getContext();
+        return ctx != null && ctx.getRelationStrategy(((GraphQLNamedType) environment.getParentType()).getName(),
+                environment.getField().getName()) == RelationStrategy.BATCH;
+    }
+
+    /**
+     * Rows of a batched relation, the key of this parent is queued and fetched along with the keys of
+     * the other parents when the loaders are dispatched
+     */
+    private static CompletableFuture<Object> load(DataFetchingEnvironment environment, SQLFieldMetadata md,
+            ResultSetRow rs, Object source) throws Exception {
+        if (environment.getDataLoaderRegistry() == DataLoaderDispatcherInstrumentationState.EMPTY_DATALOADER_REGISTRY) {
+            throw new RuntimeException("Batched relation " + environment.getField().getName()
+                    + " needs a DataLoaderRegistry on the ExecutionInput, see SQLContext#getDataLoaderRegistry");
+        }
+        List<Object> key = new ArrayList<>(md.getKeys().size());
+        for (String column : md.getKeys()) {
+            Object value = key(rs, source, column);
+            if (value == null) {
+                return CompletableFuture.completedFuture(md.isToOne() ? null : Collections.emptyList());
+            }
+            key.add(RelationBatchLoader.normalize(value));
+        }
+        SQLContext ctx = environment.getContext();
+        return ctx.getBatchLoader(environment, md).load(key);
+    }
+
+    /**
+     * Value of a key column of the parent row. The rows of a relation are keyed by the names the query
+     * asked for, a key column asked for under an alias is also there under
+     * {@link SQLQueryBuilderVisitor#keyLabel(String)}.
+     */
+    static Object key(ResultSetRow rs, Object source, String column) throws SQLException {
+        if (rs != null) {
+            return rs.getObject(column);
+        }
+        Map<?,?> row = (Map<?,?>)source;
+        String label = SQLQueryBuilderVisitor.keyLabel(column);
+        return row.containsKey(label) ? row.get(label) : row.get(column);
+    }
+
+    SQLFieldMetadata getMetadata(GraphQLFieldDefinition definition) {
+        SQLFieldMetadata md = this.metadata;
+        if (md == null || md.getDefinition() != definition) {
+            md = SQLFieldMetadata.of(definition);
+            this.metadata = md;
+        }
+        return md;
     }
 }
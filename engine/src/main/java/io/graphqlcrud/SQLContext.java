@@ -20,9 +20,33 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import javax.sql.DataSource;
+
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderOptions;
+import org.dataloader.DataLoaderRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import graphql.execution.ExecutionStepInfo;
+import graphql.language.Field;
+import graphql.schema.DataFetchingEnvironment;
 
 public class SQLContext implements Closeable{
+    private static final Logger LOGGER = LoggerFactory.getLogger(SQLContext.class);
 
     private Connection connection;
     private Statement stmt;
@@ -31,6 +55,30 @@ public class SQLContext implements Closeable{
     private String dialect;
     private String sqlMutation;
     private Object autoGeneratedPrimaryKey;
+    private boolean bindParameters;
+    private List<Object> bindValues = Collections.emptyList();
+    // every statement and result set opened for this request, closed in reverse order with the context
+    private final Deque<AutoCloseable> resources = new ArrayDeque<>();
+    private DataSource dataSource;
+    private Executor executor;
+    // when the context borrows its own connection, it gives it back as soon as no query is using it
+    private boolean releaseWhenIdle;
+    private int busy;
+    private RelationStrategy relationStrategy = RelationStrategy.SUBQUERY;
+    private final Map<String, RelationStrategy> relationStrategies = new HashMap<>();
+    private final DataLoaderRegistry dataLoaderRegistry = new DataLoaderRegistry();
+    // one loader per relation field of the query, shared by all of its parent rows
+    private final Map<Field, DataLoader<List<Object>, Object>> batchLoaders = new IdentityHashMap<>();
+    private SQLMetrics metrics = SQLMetrics.NONE;
+    private SlowQueryLog slowQueryLog;
+    private Integer defaultRelationLimit;
+    private Duration queryTimeout;
+    private final Map<String, Duration> queryTimeouts = new HashMap<>();
+    // System.nanoTime() by which all the statements of the operation are done, 0 for no deadline
+    private long deadline;
+    // statements that may be running, cancelled along with the request
+    private final Set<Statement> running = Collections.newSetFromMap(new IdentityHashMap<>());
+    private volatile boolean cancelled;
 
     public Object getAutoGeneratedPrimaryKey() {
         return autoGeneratedPrimaryKey;
@@ -56,14 +104,60 @@ public class SQLContext implements Closeable{
         this.sql = sql;
     }
 
+    /**
+     * When true the generated SQL uses "?" placeholders and the values are bound through a
+     * {@link java.sql.PreparedStatement}, so that the database can reuse the plan across requests.
+     */
+    public boolean isBindParameters() {
+        return this.bindParameters;
+    }
+
+    public void setBindParameters(boolean bindParameters) {
+        this.bindParameters = bindParameters;
+    }
+
+    public List<Object> getBindValues() {
+        return this.bindValues;
+    }
+
+    public void setBindValues(List<Object> bindValues) {
+        this.bindValues = bindValues;
+    }
+
     public SQLContext(Connection connection) {
         this.connection = connection;
     }
 
-    public Connection getConnection() {
+    /**
+     * Borrows the connection from the data source only when a query needs one, and returns it to the pool
+     * as soon as all the results read so far are drained, rather than when the context is closed.
+     */
+    public SQLContext(DataSource dataSource) {
+        this.dataSource = dataSource;
+        this.releaseWhenIdle = true;
+    }
+
+    public synchronized Connection getConnection() {
+        if (this.connection == null && this.dataSource != null) {
+            try {
+                this.connection = borrowConnection();
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to get a connection", e);
+            }
+        }
         return this.connection;
     }
 
+    /**
+     * New connection from the data source, the caller closes it
+     */
+    Connection borrowConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection c = this.dataSource.getConnection();
+        this.metrics.connectionAcquireTime(System.nanoTime() - start);
+        return c;
+    }
+
     public void setConnection(Connection connection) {
         this.connection = connection;
     }
@@ -74,6 +168,7 @@ public class SQLContext implements Closeable{
 
     public void setResultSet(ResultSet rs) {
         this.rs = rs;
+        register(rs);
     }
 
     public Statement getStmt() {
@@ -82,6 +177,275 @@ public class SQLContext implements Closeable{
 
     public void setStmt(Statement stmt) {
         this.stmt = stmt;
+        register(stmt);
+    }
+
+    /**
+     * Keeps track of a JDBC resource, so that it is closed along with this context even when the results
+     * were not fully read. Resources are closed in reverse order of registration.
+     */
+    public synchronized <T extends AutoCloseable> T register(T resource) {
+        if (resource != null) {
+            this.resources.push(resource);
+        }
+        return resource;
+    }
+
+    /**
+     * Closes a resource registered with {@link #register(AutoCloseable)} before the context does
+     */
+    void close(AutoCloseable resource) {
+        synchronized (this) {
+            this.resources.remove(resource);
+        }
+        try {
+            resource.close();
+        } catch (Exception e) {
+            LOGGER.warn("Failed to close " + resource, e);
+        }
+    }
+
+    public DataSource getDataSource() {
+        return this.dataSource;
+    }
+
+    public Executor getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Fetches the root fields of a query at same time, each on its own connection borrowed from the
+     * data source. Use a {@link BoundedExecutor} to cap how many connections one request can hold.
+     */
+    public void setParallelExecution(DataSource dataSource, Executor executor) {
+        this.dataSource = dataSource;
+        this.executor = executor;
+    }
+
+    /**
+     * Marks the start of a query, that lasts until its results are drained, see {@link #release()}
+     */
+    public synchronized void acquire() {
+        this.busy++;
+    }
+
+    /**
+     * Marks the end of a query started with {@link #acquire()}. When no other query is in flight, and
+     * the connection was borrowed by this context, the connection goes back to the pool right away.
+     */
+    public void release() throws SQLException {
+        Exception failure;
+        synchronized (this) {
+            if (this.busy > 0) {
+                this.busy--;
+            }
+            if (this.busy > 0 || !this.releaseWhenIdle) {
+                return;
+            }
+            failure = closeResources();
+        }
+        if (failure instanceof SQLException) {
+            throw (SQLException)failure;
+        } else if (failure != null) {
+            throw new SQLException(failure);
+        }
+    }
+
+    public RelationStrategy getRelationStrategy() {
+        return this.relationStrategy;
+    }
+
+    /**
+     * Strategy for all the relation fields, unless set for the relation itself
+     */
+    public void setRelationStrategy(RelationStrategy strategy) {
+        this.relationStrategy = strategy;
+    }
+
+    /**
+     * @param relation relation field as "TYPE.field", like "CUSTOMER.accounts"
+     */
+    public void setRelationStrategy(String relation, RelationStrategy strategy) {
+        this.relationStrategies.put(relation, strategy);
+    }
+
+    public RelationStrategy getRelationStrategy(String typeName, String fieldName) {
+        if (this.relationStrategies.isEmpty()) {
+            return this.relationStrategy;
+        }
+        return this.relationStrategies.getOrDefault(typeName + "." + fieldName, this.relationStrategy);
+    }
+
+    /**
+     * Settings that change the generated SQL, beside the query itself. Query plans are cached per variant.
+     */
+    public String getPlanVariant() {
+        String variant = this.dialect;
+        if (this.relationStrategy != RelationStrategy.SUBQUERY || !this.relationStrategies.isEmpty()) {
+            variant += "/" + this.relationStrategy + this.relationStrategies;
+        }
+        if (this.defaultRelationLimit != null) {
+            variant += "/limit=" + this.defaultRelationLimit;
+        }
+        return variant;
+    }
+
+    public Integer getDefaultRelationLimit() {
+        return this.defaultRelationLimit;
+    }
+
+    /**
+     * Page size of the to-many relations that do not ask for a limit, null to read all their rows
+     */
+    public void setDefaultRelationLimit(Integer defaultRelationLimit) {
+        if (defaultRelationLimit != null && defaultRelationLimit < 1) {
+            throw new IllegalArgumentException("The default relation limit must be at least 1");
+        }
+        this.defaultRelationLimit = defaultRelationLimit;
+    }
+
+    public Duration getQueryTimeout() {
+        return this.queryTimeout;
+    }
+
+    /**
+     * Time a statement may run before the driver cancels it, unless set for the entity of the statement,
+     * null for no timeout. JDBC timeouts are in seconds, the duration is rounded up.
+     */
+    public void setQueryTimeout(Duration timeout) {
+        this.queryTimeout = timeout;
+    }
+
+    /**
+     * @param entity type of the rows the statement reads or writes, like CUSTOMER
+     */
+    public void setQueryTimeout(String entity, Duration timeout) {
+        this.queryTimeouts.put(entity, timeout);
+    }
+
+    /**
+     * Time all the statements of the operation may take together, counted from now. The statements of the
+     * operation get the time that is left as their timeout, and fail right away once it is over.
+     */
+    public void setOperationTimeout(Duration timeout) {
+        this.deadline = timeout == null ? 0 : System.nanoTime() + timeout.toNanos();
+    }
+
+    /**
+     * Cancels the statements of the request that are still running, and fails the ones that have not
+     * started yet, like when the client went away.
+     */
+    public void cancel() {
+        Statement[] statements;
+        synchronized (this) {
+            this.cancelled = true;
+            statements = this.running.toArray(new Statement[0]);
+        }
+        for (Statement statement : statements) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                // closed in the meantime, nothing left to cancel
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Applies the timeout of the entity to a statement about to be executed, and keeps track of it until
+     * {@link #endStatement(Statement)} or the context releases its resources, so that it can be cancelled
+     */
+    void startStatement(Statement statement, String entity) throws SQLException {
+        Duration timeout = this.queryTimeouts.getOrDefault(entity, this.queryTimeout);
+        long nanos = timeout == null ? 0 : timeout.toNanos();
+        if (this.deadline != 0) {
+            long left = this.deadline - System.nanoTime();
+            if (left <= 0) {
+                throw new SQLTimeoutException("The operation took longer than its timeout");
+            }
+            nanos = nanos == 0 ? left : Math.min(nanos, left);
+        }
+        if (nanos > 0) {
+            statement.setQueryTimeout((int) Math.min(Integer.MAX_VALUE, (nanos + 999_999_999L) / 1_000_000_000L));
+        }
+        synchronized (this) {
+            if (this.cancelled) {
+                throw new SQLException("The request was cancelled");
+            }
+            this.running.add(statement);
+        }
+    }
+
+    synchronized void endStatement(Statement statement) {
+        this.running.remove(statement);
+    }
+
+    /**
+     * Registry to pass on the {@link graphql.ExecutionInput}, batched relations register their loaders
+     * here, so that they are dispatched once per level of the query.
+     */
+    public DataLoaderRegistry getDataLoaderRegistry() {
+        return this.dataLoaderRegistry;
+    }
+
+    /**
+     * Loader of a relation field, created by the first parent row that asks for it
+     */
+    synchronized DataLoader<List<Object>, Object> getBatchLoader(DataFetchingEnvironment environment,
+            SQLFieldMetadata metadata) {
+        DataLoader<List<Object>, Object> loader = this.batchLoaders.get(environment.getField());
+        if (loader == null) {
+            loader = DataLoader.newDataLoader(new RelationBatchLoader(environment, metadata, this),
+                    DataLoaderOptions.newOptions().setMaxBatchSize(RelationBatchLoader.MAX_BATCH_SIZE));
+            this.batchLoaders.put(environment.getField(), loader);
+            environment.getDataLoaderRegistry().register("graphqlcrud-relation-" + this.batchLoaders.size(), loader);
+        }
+        return loader;
+    }
+
+    public SQLMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Where the timings and the counts of this request are reported, nothing is recorded by default
+     */
+    public void setMetrics(SQLMetrics metrics) {
+        this.metrics = metrics == null ? SQLMetrics.NONE : metrics;
+    }
+
+    public SlowQueryLog getSlowQueryLog() {
+        return this.slowQueryLog;
+    }
+
+    /**
+     * Where the statements of this request that are slower than the threshold of the log are kept, null
+     * to keep none
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    boolean isMeasured() {
+        return this.metrics != SQLMetrics.NONE;
+    }
+
+    /**
+     * Name of the query or mutation field the field of the environment is nested in
+     */
+    static String rootField(DataFetchingEnvironment environment) {
+        ExecutionStepInfo info = environment.getExecutionStepInfo();
+        while (info.getParent() != null && info.getParent().getParent() != null) {
+            info = info.getParent();
+        }
+        return info.getFieldDefinition().getName();
+    }
+
+    public boolean isParallelExecution() {
+        return this.dataSource != null && this.executor != null;
     }
 
     public String getDialect() {
@@ -94,18 +458,46 @@ public class SQLContext implements Closeable{
 
     @Override
     public void close() throws IOException {
-        try {
-            if (this.rs != null) {
-                this.rs.close();
-            }
-            if (this.stmt != null) {
-                this.stmt.close();
+        Exception failure;
+        synchronized (this) {
+            failure = closeResources();
+        }
+        if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
+    private Exception closeResources() {
+        Exception failure = null;
+        while (!this.resources.isEmpty()) {
+            try {
+                this.resources.pop().close();
+            } catch (Exception e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
             }
+        }
+        this.rs = null;
+        this.stmt = null;
+        this.running.clear();
+        try {
             if (this.connection != null) {
                 this.connection.close();
             }
         } catch (SQLException e) {
-            throw new IOException(e);
+            if (failure == null) {
+                failure = e;
+            } else {
+                failure.addSuppressed(e);
+            }
+        }
+        if (this.releaseWhenIdle) {
+            // borrowed again by the next query that needs it
+            this.connection = null;
         }
+        return failure;
     }
 }
\ No newline at end of file
@@ -15,13 +15,25 @@
  */
 package io.graphqlcrud;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLFieldsContainer;
 import graphql.schema.GraphQLObjectType;
 import graphql.schema.GraphQLType;
+import graphql.schema.GraphQLTypeUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,54 +42,126 @@ import graphql.schema.DataFetchingEnvironment;
 
 // This must be thread safe, as it will be called by multiple threads at same time
 // This is very simple naively written class, will require more structure here
-public class SQLDataFetcher implements DataFetcher<ResultSetList>{
+public class SQLDataFetcher implements DataFetcher<Object>{
     private static final Logger LOGGER = LoggerFactory.getLogger(SQLDataFetcher.class);
 
+    private final QueryPlanCache planCache;
+    // one fetcher per root field, so the metadata of its field is resolved only once
+    private volatile SQLFieldMetadata metadata;
+
+    public SQLDataFetcher() {
+        this(new QueryPlanCache(QueryPlanCache.DEFAULT_MAX_SIZE));
+    }
+
+    /**
+     * @param planCache cache of compiled queries used when the context binds parameters, null to disable
+     */
+    public SQLDataFetcher(QueryPlanCache planCache) {
+        this.planCache = planCache;
+    }
+
+    public QueryPlanCache getPlanCache() {
+        return this.planCache;
+    }
+
+    SQLFieldMetadata getMetadata(GraphQLFieldDefinition definition) {
+        SQLFieldMetadata md = this.metadata;
+        if (md == null || md.getDefinition() != definition) {
+            md = SQLFieldMetadata.of(definition);
+            this.metadata = md;
+        }
+        return md;
+    }
+
     @Override
-    public ResultSetList get(DataFetchingEnvironment environment) throws Exception {
+    public Object get(DataFetchingEnvironment environment) throws Exception {
         SQLContext ctx = environment.getContext();
-        ResultSet rs = null;
+        ResultSetList rs = null;
 
         GraphQLType type = environment.getParentType();
+        if (!(type instanceof GraphQLObjectType)) {
+            return new ResultSetList(null, true);
+        }
 
-        if(type instanceof GraphQLObjectType) {
+        if (ctx.isParallelExecution() && ((GraphQLObjectType) type).getName().equals("QueryType")) {
+            return executeAsync(environment, ctx);
+        }
+
+        // the connection is in use until the results are read, see SQLContext#release
+        ctx.acquire();
+        try {
             String name = ((GraphQLObjectType) type).getName();
             String fieldName =  environment.getField().getName();
 
             if(name.equals("MutationType")) {
                 if(fieldName.contains("create") || fieldName.contains("update")) {
                     if(executeMutation(environment, ctx) > 0) {
-                        rs = executeSQL(environment, ctx);
+                        rs = executeSQL(environment, ctx, ctx.getConnection(), false);
                     } else {
                         throw new SQLException("Something went wrong");
                     }
                 } else if(fieldName.contains("delete")) {
-                    rs = executeSQL(environment,ctx);
-                    if(rs != null) {
+                    rs = executeSQL(environment, ctx, ctx.getConnection(), false);
+                    if(rs.getResultSet() != null) {
                         executeMutation(environment,ctx);
                     } else {
                         throw new SQLException("Something went wrong");
                     }
                 }
             } else if(name.equals("QueryType")) {
-                rs = executeSQL(environment,ctx);
+                rs = executeSQL(environment, ctx, ctx.getConnection(), true);
             }
+        } finally {
+            releaseOnDrain(ctx, rs);
+        }
+        return rs != null ? rs : new ResultSetList(null, true);
+    }
+
+    private static void releaseOnDrain(SQLContext ctx, ResultSetList rs) throws SQLException {
+        if (rs != null && rs.getResultSet() != null) {
+            rs.releaseOnDrain(ctx);
+        } else {
+            ctx.release();
         }
-        return new ResultSetList(rs, true);
     }
 
     private int executeMutation(DataFetchingEnvironment environment, SQLContext ctx) throws Exception {
-        String mutation = buildMutation(environment);
-        ctx.setSqlMutation(mutation);
+        long start = System.nanoTime();
+        SQLMutationQueryBuilderVisitor visitor = buildMutation(environment);
+        String mutation = ctx.isBindParameters() ? visitor.getParameterizedSQL() : visitor.getSQL();
+        if (ctx.isMeasured()) {
+            ctx.getMetrics().buildTime(environment.getField().getName(), entity(environment), System.nanoTime() - start);
+        }
         Connection connection = ctx.getConnection();
-        Statement statement = connection.createStatement();
-        int count = statement.executeUpdate(mutation);
-
-        // if there are auto generated PKs, fetch those.
-        try (ResultSet rs = statement.getGeneratedKeys()) {
-            if(rs.next()) {
-                Object key = rs.getObject(1);
-                ctx.setAutoGeneratedPrimaryKey(key);
+        int count;
+        // nothing is read from the statement later, so it does not need to live as long as the request
+        try (Statement statement = ctx.isBindParameters() ? connection.prepareStatement(mutation)
+                : connection.createStatement()) {
+            ctx.startStatement(statement, entity(environment));
+            start = System.nanoTime();
+            try {
+                if (ctx.isBindParameters()) {
+                    PreparedStatement pstmt = (PreparedStatement)statement;
+                    bind(pstmt, visitor.getBindValues());
+                    count = pstmt.executeUpdate();
+                } else {
+                    count = statement.executeUpdate(mutation);
+                }
+            } finally {
+                ctx.endStatement(statement);
+            }
+            if (ctx.isMeasured()) {
+                ctx.getMetrics().executeTime(environment.getField().getName(), entity(environment),
+                        System.nanoTime() - start);
+            }
+            ctx.setSqlMutation(mutation);
+
+            // if there are auto generated PKs, fetch those.
+            try (ResultSet rs = statement.getGeneratedKeys()) {
+                if(rs.next()) {
+                    Object key = rs.getObject(1);
+                    ctx.setAutoGeneratedPrimaryKey(key);
+                }
             }
         }
         LOGGER.info("SQL executed: " + mutation);
@@ -85,37 +169,162 @@ public class SQLDataFetcher implements DataFetcher<ResultSetList>{
        return count;
     }
 
-    private ResultSet executeSQL(DataFetchingEnvironment environment, SQLContext ctx) throws Exception {
-        String sql = buildSQL(environment);
-        ctx.setSQL(sql);
-        LOGGER.info("SQL Executed:" + sql);
+    /**
+     * Root fields of a query do not depend on each other, so each runs on its own connection and the
+     * execution strategy joins them. The connection, and the slot of a {@link BoundedExecutor}, are held
+     * until the rows of the field are read.
+     */
+    private CompletableFuture<ResultSetList> executeAsync(DataFetchingEnvironment environment, SQLContext ctx) {
+        CompletableFuture<ResultSetList> result = new CompletableFuture<>();
+        executeHolding(ctx.getExecutor(), release -> {
+            Connection c = null;
+            try {
+                c = ctx.register(ctx.borrowConnection());
+                ResultSetList rs = executeSQL(environment, ctx, c, true);
+                Connection connection = c;
+                rs.onDrain(() -> {
+                    ctx.close(connection);
+                    release.run();
+                });
+                result.complete(rs);
+            } catch (Exception e) {
+                if (c != null) {
+                    ctx.close(c);
+                }
+                release.run();
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private static void executeHolding(Executor executor, Consumer<Runnable> task) {
+        if (executor instanceof BoundedExecutor) {
+            ((BoundedExecutor) executor).executeHolding(task);
+        } else {
+            executor.execute(() -> task.accept(() -> {}));
+        }
+    }
 
+    private ResultSetList executeSQL(DataFetchingEnvironment environment, SQLContext ctx, Connection c,
+            boolean usePlanCache) throws Exception {
         ResultSet rs = null;
-        Connection c = ctx.getConnection();
-        Statement stmt = c.createStatement();
-        boolean hasResults = stmt.execute(sql);
+        Statement stmt;
+        boolean hasResults;
+        Map<String, Integer> columns;
+        String sql;
+        List<Object> values = Collections.emptyList();
+        long start = System.nanoTime();
+        if (ctx.isBindParameters()) {
+            // the select after a mutation depends on the state of the mutation, those are never cached
+            usePlanCache = usePlanCache && this.planCache != null;
+            QueryShape shape = QueryShape.of(environment.getField(), environment.getVariables());
+            QueryPlan plan = null;
+            if (usePlanCache) {
+                plan = this.planCache.get(ctx.getPlanVariant(), environment.getFieldDefinition(), shape);
+            }
+            boolean cached = plan != null;
+            if (plan == null) {
+                plan = QueryPlan.compile(buildSQL(environment, shape), shape);
+                if (usePlanCache) {
+                    this.planCache.put(ctx.getPlanVariant(), environment.getFieldDefinition(), shape, plan);
+                }
+            }
+            sql = plan.getSQL();
+            values = plan.getBindValues(shape);
+            columns = plan.getColumnIndexes();
+            if (ctx.isMeasured()) {
+                ctx.getMetrics().buildTime(environment.getField().getName(), entity(environment), cached,
+                        System.nanoTime() - start);
+            }
+            ctx.setSQL(sql);
+            ctx.setBindValues(values);
+            LOGGER.info("SQL Executed:" + sql + " with values " + values);
+
+            PreparedStatement pstmt = c.prepareStatement(sql);
+            ctx.setStmt(pstmt);
+            bind(pstmt, values);
+            stmt = pstmt;
+            // running until its results are drained, the context forgets it when it releases them
+            ctx.startStatement(stmt, entity(environment));
+            start = System.nanoTime();
+            hasResults = pstmt.execute();
+        } else {
+            SQLQueryBuilderVisitor visitor = buildSQL(environment, null);
+            sql = visitor.getSQL();
+            columns = visitor.getColumnIndexes();
+            ctx.setSQL(sql);
+            if (ctx.isMeasured()) {
+                ctx.getMetrics().buildTime(environment.getField().getName(), entity(environment),
+                        System.nanoTime() - start);
+            }
+            LOGGER.info("SQL Executed:" + sql);
+
+            stmt = c.createStatement();
+            ctx.setStmt(stmt);
+            ctx.startStatement(stmt, entity(environment));
+            start = System.nanoTime();
+            hasResults = stmt.execute(sql);
+        }
         if (hasResults) {
             rs = stmt.getResultSet();
+            ctx.setResultSet(rs);
         }
-        ctx.setStmt(stmt);
-        ctx.setResultSet(rs);
 
-        return rs;
+        ResultSetList list = new ResultSetList(rs, columns, true);
+        long elapsed = System.nanoTime() - start;
+        String rootField = environment.getField().getName();
+        if (ctx.isMeasured()) {
+            String entity = entity(environment);
+            ctx.getMetrics().executeTime(rootField, entity, elapsed);
+            list.onRowCount(rows -> ctx.getMetrics().rowsFetched(rootField, entity, rows));
+        }
+        SlowQueryLog slowQueries = ctx.getSlowQueryLog();
+        if (slowQueries != null && slowQueries.isSlow(elapsed)) {
+            String operationName = environment.getOperationDefinition().getName();
+            List<Object> bindValues = values;
+            list.onRowCount(rows -> slowQueries.record(operationName, rootField, sql, bindValues, rows, elapsed));
+        }
+        if (!GraphQLTypeUtil.isList(GraphQLTypeUtil.unwrapNonNull(environment.getFieldType()))) {
+            // a single row, read it now rather than hold the statement until the response is written
+            list.detachFirstRow();
+        }
+        return list;
+    }
+
+    /**
+     * Type of the rows the root field reads or writes, the entity of its measurements
+     */
+    static String entity(DataFetchingEnvironment environment) {
+        GraphQLType type = GraphQLTypeUtil.unwrapAll(environment.getFieldDefinition().getType());
+        return type instanceof GraphQLObjectType ? ((GraphQLObjectType) type).getName() : null;
+    }
+
+    static void bind(PreparedStatement stmt, List<Object> values) throws SQLException {
+        for (int i = 0; i < values.size(); i++) {
+            Object value = values.get(i);
+            // graphql IntValue is BigInteger, which is not a standard JDBC type
+            if (value instanceof BigInteger) {
+                BigInteger v = (BigInteger)value;
+                value = v.bitLength() < 64 ? (Object)v.longValue() : new BigDecimal(v);
+            }
+            stmt.setObject(i + 1, value);
+        }
     }
 
-    private String buildSQL(DataFetchingEnvironment environment) {
-        SQLQueryBuilderVisitor visitor = new SQLQueryBuilderVisitor(environment.getContext());
+    private SQLQueryBuilderVisitor buildSQL(DataFetchingEnvironment environment, QueryShape shape) {
+        SQLQueryBuilderVisitor visitor = new SQLQueryBuilderVisitor(environment.getContext(),
+                environment.getGraphQLSchema().getCodeRegistry(), (GraphQLFieldsContainer) environment.getParentType(),
+                shape);
         QueryScanner scanner = new QueryScanner(environment, visitor);
         scanner.scanQuery(environment.getField(), environment.getFieldDefinition(), null, true);
-        String sql = visitor.getSQL();
-        return sql;
+        return visitor;
     }
 
-    private String buildMutation(DataFetchingEnvironment environment) {
+    private SQLMutationQueryBuilderVisitor buildMutation(DataFetchingEnvironment environment) {
         SQLMutationQueryBuilderVisitor visitor = new SQLMutationQueryBuilderVisitor(environment.getContext());
         QueryScanner scanner = new QueryScanner(environment,visitor);
         scanner.scanMutation(environment.getField(), environment.getFieldDefinition(), null, true);
-        String sql = visitor.getSQL();
-        return sql;
+        return visitor;
     }
 }
@@ -1,28 +0,0 @@
-/*
- * Copyright 2012-2017 the original author or authors.
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *      http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package io.graphqlcrud;
-import graphql.schema.DataFetcher;
-import graphql.schema.DataFetcherFactory;
-import graphql.schema.DataFetcherFactoryEnvironment;
-
-// This must be thread safe
-public class SQLDataFetcherFactory implements DataFetcherFactory<ResultSetList> {
-    private static SQLDataFetcher fetcher = new SQLDataFetcher();
-    @Override
-    public DataFetcher<ResultSetList> get(DataFetcherFactoryEnvironment environment) {
-        return fetcher;
-    }
-}
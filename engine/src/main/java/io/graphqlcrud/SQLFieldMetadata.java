@@ -0,0 +1,185 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import java.util.Collections;
+import java.util.List;
+
+import graphql.language.Field;
+import graphql.language.Selection;
+import graphql.schema.DataFetcher;
+import graphql.schema.GraphQLCodeRegistry;
+import graphql.schema.GraphQLFieldDefinition;
+import graphql.schema.GraphQLFieldsContainer;
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.GraphQLType;
+import graphql.schema.GraphQLTypeUtil;
+
+/**
+ * The @sql directive information of a field definition. The schema does not change after it is built,
+ * so the {@link RowFetcher} of each field resolves this once and keeps it, instead of scanning the
+ * directives again for every row.
+ */
+public class SQLFieldMetadata {
+    private final GraphQLFieldDefinition definition;
+    private final String columnName;
+    private final List<String> keys;
+    private final List<String> referenceKeys;
+    private final boolean toOne;
+    private final GraphQLObjectType entityType;
+    private final String tableName;
+    private final List<String> identityColumns;
+
+    private SQLFieldMetadata(GraphQLFieldDefinition definition) {
+        this.definition = definition;
+        this.columnName = definition.getName();
+
+        SQLDirective sqlDirective = SQLDirective.find(definition.getDirectives());
+        if (sqlDirective != null && sqlDirective.getPrimaryFields() != null) {
+            this.keys = Collections.unmodifiableList(sqlDirective.getPrimaryFields());
+            this.referenceKeys = Collections.unmodifiableList(sqlDirective.getForeignFields());
+        } else {
+            this.keys = null;
+            this.referenceKeys = null;
+        }
+
+        GraphQLType type = GraphQLTypeUtil.unwrapNonNull(definition.getType());
+        this.toOne = type instanceof GraphQLObjectType;
+
+        GraphQLType unwrapped = GraphQLTypeUtil.unwrapAll(definition.getType());
+        if (unwrapped instanceof GraphQLObjectType) {
+            this.entityType = (GraphQLObjectType) unwrapped;
+            SQLDirective tableDirective = SQLDirective.find(this.entityType.getDirectives());
+            this.tableName = tableDirective == null ? null : tableDirective.getTableName();
+            this.identityColumns = Collections.unmodifiableList(SQLQueryBuilderVisitor.getIdentityColumns(this.entityType));
+        } else {
+            this.entityType = null;
+            this.tableName = null;
+            this.identityColumns = Collections.emptyList();
+        }
+    }
+
+    /**
+     * Resolves the directives of the field, keep the result rather than calling this for every row
+     */
+    public static SQLFieldMetadata of(GraphQLFieldDefinition definition) {
+        return new SQLFieldMetadata(definition);
+    }
+
+    /**
+     * Metadata kept by the {@link RowFetcher} or {@link SQLDataFetcher} of the field, or resolved anew for
+     * a field fetched otherwise
+     */
+    public static SQLFieldMetadata of(GraphQLCodeRegistry registry, GraphQLFieldsContainer parent,
+            GraphQLFieldDefinition definition) {
+        DataFetcher<?> fetcher = registry.getDataFetcher(parent, definition);
+        if (fetcher instanceof RowFetcher) {
+            return ((RowFetcher) fetcher).getMetadata(definition);
+        }
+        if (fetcher instanceof SQLDataFetcher) {
+            return ((SQLDataFetcher) fetcher).getMetadata(definition);
+        }
+        return of(definition);
+    }
+
+    /**
+     * Resolves the metadata of every field of the entity types in the schema, so that no fetcher has
+     * to while serving the first requests
+     */
+    public static void resolve(GraphQLSchema schema) {
+        schema.getAllTypesAsList().forEach(type -> {
+            if (type instanceof GraphQLObjectType && !type.getName().startsWith("__")) {
+                GraphQLObjectType objectType = (GraphQLObjectType) type;
+                objectType.getFieldDefinitions().forEach(fd -> of(schema.getCodeRegistry(), objectType, fd));
+            }
+        });
+    }
+
+    public GraphQLFieldDefinition getDefinition() {
+        return this.definition;
+    }
+
+    public String getColumnName() {
+        return this.columnName;
+    }
+
+    /**
+     * True when this field is a link to another table, see {@link #getKeys()} and {@link #getReferenceKeys()}
+     */
+    public boolean isRelation() {
+        return this.keys != null;
+    }
+
+    /**
+     * True when the field returns a single object rather than a list
+     */
+    public boolean isToOne() {
+        return this.toOne;
+    }
+
+    /**
+     * True when the field is a to-one relation and the given selection of it only asks for its reference
+     * keys, which are same values as the keys of the parent row, so there is nothing to join
+     */
+    public boolean isKeyOnly(Field field) {
+        if (!isRelation() || !this.toOne || field.getSelectionSet() == null) {
+            return false;
+        }
+        for (Selection<?> selection : field.getSelectionSet().getSelections()) {
+            if (!(selection instanceof Field)) {
+                return false;
+            }
+            String name = ((Field) selection).getName();
+            if (!QueryScanner.isIntrospection(name) && !this.referenceKeys.contains(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Columns of the parent table that join to the {@link #getReferenceKeys()} of the target table
+     */
+    public List<String> getKeys() {
+        return this.keys;
+    }
+
+    public List<String> getReferenceKeys() {
+        return this.referenceKeys;
+    }
+
+    /**
+     * Object type the field returns, null for scalars
+     */
+    public GraphQLObjectType getEntityType() {
+        return this.entityType;
+    }
+
+    /**
+     * Table of the {@link #getEntityType()}
+     */
+    public String getTableName() {
+        return this.tableName;
+    }
+
+    /**
+     * Key columns of the {@link #getEntityType()}, used as the default sort order
+     */
+    public List<String> getIdentityColumns() {
+        return this.identityColumns;
+    }
+}
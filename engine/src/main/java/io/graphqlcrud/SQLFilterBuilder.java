@@ -18,12 +18,11 @@ package io.graphqlcrud;
 import static org.jooq.impl.DSL.field;
 import static org.jooq.impl.DSL.name;
 
-import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.jooq.Condition;
+import org.jooq.impl.DSL;
 
 import graphql.language.ArrayValue;
 import graphql.language.BooleanValue;
@@ -34,22 +33,28 @@ import graphql.language.Value;
 
 public class SQLFilterBuilder implements FilterBuilder<Condition> {
     private String alias;
+    private QueryShape shape;
 
     public SQLFilterBuilder(String tableAlias) {
         this.alias = tableAlias;
     }
 
+    public SQLFilterBuilder(String tableAlias, QueryShape shape) {
+        this.alias = tableAlias;
+        this.shape = shape;
+    }
+
     @Override
     public Condition buildCondition(String left, String operation, Value<?> v) {
         Condition c = null;
         if (v instanceof StringValue) {
-            c = visitStringValue(((StringValue) v).getValue(),left, operation);
+            c = visitStringValue(bind(v, ((StringValue) v).getValue()),left, operation);
         } else if (v instanceof BooleanValue) {
-            c = visitBooleanValue(((BooleanValue) v).isValue(),left, operation);
+            c = visitBooleanValue(bind(v, ((BooleanValue) v).isValue()),left, operation);
         } else if (v instanceof IntValue) {
-            c = visitIntValue(((IntValue) v).getValue(),left, operation);
+            c = visitIntValue(bind(v, ((IntValue) v).getValue()),left, operation);
         } else if (v instanceof FloatValue) {
-            c = visitFloatValue(((FloatValue) v).getValue(),left,  operation);
+            c = visitFloatValue(bind(v, ((FloatValue) v).getValue()),left,  operation);
         } else if(v instanceof ArrayValue) {
             c = visitArrayValue(((ArrayValue) v).getValues(),left,operation);
         }
@@ -71,7 +76,21 @@ public class SQLFilterBuilder implements FilterBuilder<Condition> {
         return left.not();
     }
 
-    Condition visitStringValue(String value, String fieldName, String conditionName) {
+    /**
+     * Wraps the literal as bind value, named after its slot in the query shape when there is one, so that
+     * the compiled SQL can be reused with different values.
+     */
+    @SuppressWarnings("unchecked")
+    org.jooq.Field<Object> bind(Value<?> source, Object value) {
+        String name = this.shape != null ? this.shape.paramName(source) : null;
+        if (name != null) {
+            return (org.jooq.Field<Object>)(org.jooq.Field<?>)DSL.param(name, value);
+        }
+        return DSL.val(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    Condition visitStringValue(org.jooq.Field<Object> value, String fieldName, String conditionName) {
         org.jooq.Field<Object> left = this.alias != null ? field(name(this.alias, fieldName)) : field(fieldName);
         Condition c = null;
         switch (conditionName) {
@@ -103,7 +122,7 @@ public class SQLFilterBuilder implements FilterBuilder<Condition> {
                 c = left.endsWith(value);
                 break;
             case "matchesPattern":
-                c = left.likeRegex(value);
+                c = left.likeRegex((org.jooq.Field<String>)(org.jooq.Field<?>)value);
                 break;
             default:
                 throw new RuntimeException("Unexpected value: " + conditionName);
@@ -111,7 +130,7 @@ public class SQLFilterBuilder implements FilterBuilder<Condition> {
         return c;
     }
 
-    Condition visitBooleanValue(Boolean value, String fieldName, String conditionName) {
+    Condition visitBooleanValue(org.jooq.Field<Object> value, String fieldName, String conditionName) {
         org.jooq.Field<Object> left = this.alias != null ? field(name(this.alias, fieldName)) : field(fieldName);
         Condition c = null;
         switch (conditionName) {
@@ -127,7 +146,7 @@ public class SQLFilterBuilder implements FilterBuilder<Condition> {
         return c;
     }
 
-    Condition visitIntValue(BigInteger value, String fieldName, String conditionName) {
+    Condition visitIntValue(org.jooq.Field<Object> value, String fieldName, String conditionName) {
         org.jooq.Field<Object> left = this.alias != null ? field(name(this.alias, fieldName)) : field(fieldName);
         Condition c = null;
         switch (conditionName) {
@@ -155,7 +174,7 @@ public class SQLFilterBuilder implements FilterBuilder<Condition> {
         return c;
     }
 
-    Condition visitFloatValue(BigDecimal value, String fieldName, String conditionName) {
+    Condition visitFloatValue(org.jooq.Field<Object> value, String fieldName, String conditionName) {
         org.jooq.Field<Object> left = this.alias != null ? field(name(this.alias, fieldName)) : field(fieldName);
         Condition c = null;
         switch (conditionName) {
@@ -184,37 +203,32 @@ public class SQLFilterBuilder implements FilterBuilder<Condition> {
     }
 
 
+    private org.jooq.Field<Object> bindValue(Value<?> v) {
+        if (v instanceof StringValue) {
+            return bind(v, ((StringValue) v).getValue());
+        } else if (v instanceof FloatValue) {
+            return bind(v, ((FloatValue) v).getValue());
+        } else if (v instanceof IntValue) {
+            return bind(v, ((IntValue) v).getValue());
+        } else if (v instanceof BooleanValue) {
+            return bind(v, ((BooleanValue) v).isValue());
+        }
+        throw new RuntimeException("Unexpected value: " + v);
+    }
+
     Condition visitArrayValue(List<Value> v, String fieldName, String conditionName) {
         org.jooq.Field<Object> left = this.alias != null ? field(name(this.alias, fieldName)) : field(fieldName);
         Condition c = null;
         switch (conditionName) {
             case "between":
-                if (v.get(0) instanceof FloatValue) {
-                    c = left.between(((FloatValue) v.get(0)).getValue(), ((FloatValue) v.get(1)).getValue());
-                } else if (v.get(0) instanceof IntValue) {
-                    c = left.between(((IntValue) v.get(0)).getValue(), ((IntValue) v.get(1)).getValue());
-                }
+                c = left.between(bindValue(v.get(0))).and(bindValue(v.get(1)));
                 break;
             case "in":
-                if (v.get(0) instanceof StringValue) {
-                    List<String> list = new ArrayList<>();
-                    for (Value<?> value : v) {
-                        list.add(((StringValue) value).getValue());
-                    }
-                    c = left.in(list);
-                } else if (v.get(0) instanceof FloatValue) {
-                    List<BigDecimal> list = new ArrayList<>();
-                    for (Value<?> value : v) {
-                        list.add(((FloatValue) value).getValue());
-                    }
-                    c = left.in(list);
-                } else if (v.get(0) instanceof IntValue) {
-                    List<BigInteger> list = new ArrayList<>();
-                    for (Value<?> value : v) {
-                        list.add(((IntValue) value).getValue());
-                    }
-                    c = left.in(list);
+                List<org.jooq.Field<Object>> list = new ArrayList<>();
+                for (Value<?> value : v) {
+                    list.add(bindValue(value));
                 }
+                c = left.in(list);
                 break;
             default:
                 throw new RuntimeException("Unexpected value: " + conditionName);
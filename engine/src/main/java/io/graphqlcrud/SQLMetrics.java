@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+/**
+ * Receives the measurements the engine takes while serving a request, see {@link SQLContext#setMetrics(SQLMetrics)}.
+ * The rootField is the name of the query or mutation field the measurement belongs to, the entity is the
+ * type of the rows, like CUSTOMER. Called concurrently, the implementation must be thread safe.
+ */
+public interface SQLMetrics {
+
+    /**
+     * Does not record anything, the default of a {@link SQLContext}
+     */
+    SQLMetrics NONE = new SQLMetrics() {};
+
+    /**
+     * Time spent turning the selection of the root field into SQL, for a query or a mutation
+     */
+    default void buildTime(String rootField, String entity, long nanos) {
+    }
+
+    /**
+     * Time spent getting the SQL of a query with bind parameters, cached when its plan came from the plan
+     * cache, and the time is only that of the query shape and the bind values
+     */
+    default void buildTime(String rootField, String entity, boolean cached, long nanos) {
+        buildTime(rootField, entity, nanos);
+    }
+
+    /**
+     * Time the database took to execute a statement, up to the first results
+     */
+    default void executeTime(String rootField, String entity, long nanos) {
+    }
+
+    /**
+     * Rows read from the results of a statement
+     */
+    default void rowsFetched(String rootField, String entity, long rows) {
+    }
+
+    /**
+     * Size of the JSON array of a nested relation, read from its parent row
+     */
+    default void jsonBytesParsed(String rootField, String entity, long bytes) {
+    }
+
+    /**
+     * Time spent waiting for a connection of the data source
+     */
+    default void connectionAcquireTime(long nanos) {
+    }
+}
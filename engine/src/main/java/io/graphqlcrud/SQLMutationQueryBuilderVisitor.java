@@ -23,7 +23,7 @@ import graphql.schema.GraphQLObjectType;
 import graphql.schema.GraphQLType;
 import org.jooq.*;
 import org.jooq.Record;
-import org.jooq.impl.DSL;
+import org.jooq.conf.ParamType;
 
 import java.util.*;
 
@@ -36,7 +36,7 @@ public class SQLMutationQueryBuilderVisitor implements QueryVisitor {
 
     public SQLMutationQueryBuilderVisitor(SQLContext ctx) {
         this.ctx = ctx;
-        this.create = DSL.using(SQLDialect.valueOf(ctx.getDialect()));
+        this.create = DSLContexts.get(ctx.getDialect());
     }
 
     private static class VisitorContext {
@@ -155,6 +155,26 @@ public class SQLMutationQueryBuilderVisitor implements QueryVisitor {
             return new RuntimeException("Unexpected value: " + visitorContext.mutationType).toString();
     }
 
+    public String getParameterizedSQL() {
+        return getQuery().getSQL(ParamType.INDEXED);
+    }
+
+    public List<Object> getBindValues() {
+        return getQuery().getBindValues();
+    }
+
+    private Query getQuery() {
+        VisitorContext visitorContext = this.stack.peek();
+        if(visitorContext.mutationType.contains("create"))
+            return visitorContext.insertClause;
+        else if(visitorContext.mutationType.contains("update"))
+            return (Query) visitorContext.updateClause;
+        else if(visitorContext.mutationType.contains("delete"))
+            return visitorContext.deleteClause;
+        else
+            throw new RuntimeException("Unexpected value: " + visitorContext.mutationType);
+    }
+
     private Object getColumnValues(Value field) {
         Object fieldValue = null;
         if (field instanceof IntValue) {
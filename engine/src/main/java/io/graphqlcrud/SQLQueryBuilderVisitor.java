@@ -16,14 +16,11 @@
 package io.graphqlcrud;
 
 import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.inline;
 import static org.jooq.impl.DSL.jsonEntry;
-import static org.jooq.impl.DSL.jsonObject;
-import static org.jooq.impl.DSL.jsonbArrayAgg;
 import static org.jooq.impl.DSL.name;
 import static org.jooq.impl.DSL.table;
-import static org.jooq.impl.DSL.val;
 
-import java.math.BigInteger;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -32,18 +29,23 @@ import graphql.schema.*;
 import org.jooq.Condition;
 import org.jooq.DSLContext;
 import org.jooq.JSONEntry;
+import org.jooq.Param;
 import org.jooq.Record;
-import org.jooq.SQLDialect;
+import org.jooq.RowN;
 import org.jooq.SelectSelectStep;
+import org.jooq.conf.ParamType;
 import org.jooq.impl.DSL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import graphql.language.Argument;
+import graphql.language.ArrayValue;
+import graphql.language.EnumValue;
 import graphql.language.Field;
 import graphql.language.IntValue;
 import graphql.language.ObjectField;
 import graphql.language.ObjectValue;
+import graphql.language.StringValue;
 import graphql.language.Value;
 import io.graphqlcrud.FilterScanner.Clause;
 
@@ -53,24 +55,60 @@ import io.graphqlcrud.FilterScanner.Clause;
 public class SQLQueryBuilderVisitor implements QueryVisitor{
     private static final Logger LOGGER = LoggerFactory.getLogger(SQLQueryBuilderVisitor.class);
 
+    // dialects with row_number() over (partition by ..), H2 only has them from 1.4.198 and MySQL from 8
+    private static final Set<String> WINDOW_DIALECTS = new HashSet<>(Arrays.asList(
+            org.jooq.SQLDialect.POSTGRES.name(), org.jooq.SQLDialect.MARIADB.name(),
+            org.jooq.SQLDialect.FIREBIRD.name(), org.jooq.SQLDialect.SQLITE.name()));
+    private static final String ROW_NUMBER = "#rn";
+
     protected AtomicInteger inc = new AtomicInteger(0);
     protected SQLContext ctx;
     protected DSLContext create = null;
+    protected QueryShape shape;
+    protected JsonAggregation aggregation;
+    private final GraphQLCodeRegistry registry;
+    private final GraphQLFieldsContainer parent;
+    private final Map<String, Integer> columnIndexes = new HashMap<>();
+    private final Set<String> relationColumns = new HashSet<>();
+    private List<String> batchColumns;
+    private Collection<List<Object>> batchKeys;
+    private Integer batchLimit;
+    private Integer batchOffset;
+    private boolean batchBackward;
 
     private static class VisitorContext {
         String alias;
+        GraphQLObjectType type;
+        // of the field this level reads, resolved once per query
+        SQLFieldMetadata metadata;
+        // a relation fetched by its own query, nothing of it goes into this select
+        boolean skip;
+        Set<String> relations = new HashSet<>();
+        // key columns the relations are joined by, and those of them that were not asked for
+        Set<String> keys = new LinkedHashSet<>();
+        Set<String> unrequestedKeys = new HashSet<>();
+        // relations joined as "left join lateral (...) on true", in the order they were visited
+        List<org.jooq.Table<?>> laterals = new ArrayList<>();
         SelectSelectStep<Record> selectClause;
         Map<String, org.jooq.Field<?>> selectedColumns = new LinkedHashMap<>();
         Map<String, Field> selectedFields = new LinkedHashMap<>();
         org.jooq.Condition condition;
         AliasedTable table;
         Page page;
-        List<org.jooq.Field<?>> orderby;
+        List<Sort> orderby;
+    }
+
+    private static class Sort {
+        String column;
+        boolean descending;
+        String nulls;
     }
 
     private static class Page {
-        BigInteger limit;
-        BigInteger offset;
+        IntValue limit;
+        IntValue offset;
+        StringValue after;
+        StringValue before;
     }
 
     private class AliasedTable {
@@ -84,14 +122,38 @@ public class SQLQueryBuilderVisitor implements QueryVisitor{
 
     private Stack<VisitorContext> stack = new Stack<>();
 
-    public SQLQueryBuilderVisitor(SQLContext ctx) {
+    /**
+     * @param registry code registry of the schema, the fetchers of the fields keep their {@link SQLFieldMetadata}
+     * @param parent type of the root field of the query
+     */
+    public SQLQueryBuilderVisitor(SQLContext ctx, GraphQLCodeRegistry registry, GraphQLFieldsContainer parent) {
         this.ctx = ctx;
-        this.create = DSL.using(SQLDialect.valueOf(ctx.getDialect()));
+        this.create = DSLContexts.get(ctx.getDialect());
+        this.aggregation = JsonAggregations.get(ctx.getDialect());
+        this.registry = registry;
+        this.parent = parent;
+    }
+
+    /**
+     * Builds the SQL with bind parameters named after the slots of the given shape, see {@link QueryPlan}
+     */
+    public SQLQueryBuilderVisitor(SQLContext ctx, GraphQLCodeRegistry registry, GraphQLFieldsContainer parent,
+            QueryShape shape) {
+        this(ctx, registry, parent);
+        this.shape = shape;
     }
 
     @Override
     public void visitScalar(Field field, GraphQLFieldDefinition definition, GraphQLType type) {
         VisitorContext vctx = this.stack.peek();
+        if (vctx.skip) {
+            return;
+        }
+        if (field.getName().equals(Cursor.FIELD)) {
+            // made from the key columns of the row, see CursorFetcher
+            vctx.metadata.getIdentityColumns().forEach(col -> selectKey(vctx, col));
+            return;
+        }
         boolean found = false;
         for (String column: vctx.selectedColumns.keySet()) {
             if (column.equals(field.getName())) {
@@ -102,6 +164,9 @@ public class SQLQueryBuilderVisitor implements QueryVisitor{
         if (!found) {
             vctx.selectedColumns.put(field.getName(), field(name(vctx.alias, field.getName())));
             vctx.selectedFields.put(field.getName(), field);
+        } else if (vctx.unrequestedKeys.remove(field.getName())) {
+            // a key selected for a relation, now asked for, maybe under an alias
+            vctx.selectedFields.put(field.getName(), field);
         }
     }
 
@@ -112,26 +177,61 @@ public class SQLQueryBuilderVisitor implements QueryVisitor{
         return field.getName();
     }
 
+    /**
+     * Name a key column is also selected under in the rows of a relation, when the query asked for it
+     * under an alias. It is not a valid GraphQL name, so it never clashes with an alias.
+     */
+    static String keyLabel(String column) {
+        return "#" + column;
+    }
+
+    /**
+     * Key columns that went under an alias, see {@link #keyLabel(String)}
+     */
+    private static List<String> aliasedKeys(VisitorContext vctx) {
+        List<String> aliased = new ArrayList<>();
+        for (String key : vctx.keys) {
+            if (!fieldName(vctx.selectedFields.get(key)).equals(key)) {
+                aliased.add(key);
+            }
+        }
+        return aliased;
+    }
+
     @Override
     public void startVisitObject(Field field, GraphQLFieldDefinition definition, GraphQLObjectType type) {
-        SQLDirective sqlDirective = SQLDirective.find(definition.getDirectives());
         VisitorContext vctx = this.stack.peek();
+        SQLFieldMetadata md = SQLFieldMetadata.of(this.registry, vctx.type, definition);
         String aliasLeft = vctx.alias;
 
+        if (vctx.skip || isBatched(vctx, field, md) || md.isKeyOnly(field)) {
+            if (!vctx.skip) {
+                // the parent only provides the join keys, see RelationBatchLoader and RowFetcher
+                for (String key : md.getKeys()) {
+                    selectKey(vctx, key);
+                }
+            }
+            VisitorContext skipped = new VisitorContext();
+            skipped.type = type;
+            skipped.skip = true;
+            this.stack.push(skipped);
+            return;
+        }
+
         // add current object field as selected
         vctx.selectedFields.put(field.getName(), field);
 
-        if (sqlDirective != null && sqlDirective.getPrimaryFields() != null) {
+        if (md.isRelation()) {
             String aliasRight = alias(this.inc.getAndIncrement());
-            AliasedTable right = buildTable(definition, aliasRight);
+            AliasedTable right = new AliasedTable(md.getTableName(), aliasRight);
 
             SelectSelectStep<Record> select = this.create.select();
 
             // build where clause based on join
             Condition where = null;
-            for (int key = 0; key < sqlDirective.getPrimaryFields().size(); key++) {
-                Condition cond = field(name(aliasLeft, sqlDirective.getPrimaryFields().get(key)))
-                        .eq(field(name(sqlDirective.getForeignFields().get(key))));
+            for (int key = 0; key < md.getKeys().size(); key++) {
+                Condition cond = field(name(aliasLeft, md.getKeys().get(key)))
+                        .eq(field(name(md.getReferenceKeys().get(key))));
                 if (key == 0) {
                     where = cond;
                 } else {
@@ -141,6 +241,8 @@ public class SQLQueryBuilderVisitor implements QueryVisitor{
 
             // next level deep as context
             vctx = new VisitorContext();
+            vctx.type = type;
+            vctx.metadata = md;
             vctx.table = right;
             vctx.alias = aliasRight;
             vctx.selectClause = select;
@@ -155,71 +257,265 @@ public class SQLQueryBuilderVisitor implements QueryVisitor{
     @Override
     public void endVisitObject(Field field, GraphQLFieldDefinition rootDefinition, GraphQLObjectType type) {
         VisitorContext vctx = this.stack.pop();
+        if (vctx.skip) {
+            return;
+        }
 
         SelectSelectStep<Record> select = this.create.select();
         select.from(vctx.table.name);
 
+        List<String> identityColumns = vctx.metadata.getIdentityColumns();
+        seek(vctx, null, identityColumns);
+
+        // a to-many relation without a limit gets the default one
+        boolean defaultLimit = (vctx.page == null || vctx.page.limit == null)
+                && this.ctx.getDefaultRelationLimit() != null && !vctx.metadata.isToOne();
+        boolean backward = isBackward(vctx, defaultLimit);
+
         // add orderby
         if (vctx.orderby == null) {
-            List<String> identityColumns = getIdentityColumns(type);
-            List<org.jooq.Field<?>> orderby = new ArrayList<>();
-            identityColumns.stream().forEach(col -> {
-                org.jooq.Field<?> f = field(name(col));
-                orderby.add(f);
-            });
-            select.orderBy(orderby);
+            select.orderBy(buildOrderBy(null, identityColumns, backward));
         } else {
-            select.orderBy(vctx.orderby);
+            select.orderBy(buildOrderBy(null, vctx.orderby, identityColumns));
         }
 
         // has limit/offset
-        if (vctx.page != null) {
-            if (vctx.page.limit != null) {
-                select.limit(vctx.page.limit.intValue());
-            }
-            if (vctx.page.offset != null) {
-                select.offset(vctx.page.offset.intValue());
-            }
+        if (vctx.page != null && vctx.page.limit != null) {
+            select.limit(bind(vctx.page.limit));
+        } else if (defaultLimit) {
+            select.limit(inline(this.ctx.getDefaultRelationLimit()));
+        }
+        if (vctx.page != null && vctx.page.offset != null) {
+            select.offset(bind(vctx.page.offset));
         }
 
         // has where clause
         if (vctx.condition != null) {
             select.where(vctx.condition);
         }
-        vctx.selectClause.from(table(select).as(vctx.table.alias));
+        if (backward) {
+            // the page before the cursor, back in key order
+            SelectSelectStep<Record> ordered = this.create.select();
+            ordered.from(select.asTable(vctx.alias + "r")).orderBy(buildOrderBy(null, identityColumns, false));
+            select = ordered;
+        }
+        vctx.selectClause.from(joinLaterals(table(select).as(vctx.table.alias), vctx));
 
         // build the nested json object
         List<JSONEntry<?>> list = new ArrayList<>();
         for (Map.Entry<String, Field> entry: vctx.selectedFields.entrySet()) {
-            list.add(jsonEntry(val(fieldName(entry.getValue()), String.class),
+            // keys are part of the query shape, not values, so never bind them
+            list.add(jsonEntry(inline(fieldName(entry.getValue()), String.class),
                     vctx.selectedColumns.get(entry.getKey())));
         }
+        for (String key : aliasedKeys(vctx)) {
+            list.add(jsonEntry(inline(keyLabel(key), String.class), vctx.selectedColumns.get(key)));
+        }
 
-        org.jooq.Field<?> json = vctx.selectClause.select(jsonbArrayAgg(jsonObject(list))).asField();
+        VisitorContext parent = this.stack.peek();
+        org.jooq.Field<?> json;
+        if (this.ctx.getRelationStrategy(parent.type.getName(), field.getName()) == RelationStrategy.LATERAL) {
+            // joined once to the parent rows, instead of a sub query evaluated in the select list
+            String lateralAlias = vctx.alias + "j";
+            vctx.selectClause.select(this.aggregation.arrayAgg(list).as(field.getName()));
+            parent.laterals.add(DSL.lateral(vctx.selectClause.asTable(lateralAlias)));
+            json = field(name(lateralAlias, field.getName()));
+        } else {
+            json = vctx.selectClause.select(this.aggregation.arrayAgg(list)).asField();
+        }
 
         // add the above as a field to parent query
-        this.stack.peek().selectedColumns.put(field.getName(), json);
+        parent.selectedColumns.put(field.getName(), json);
+        parent.relations.add(field.getName());
     }
 
-    private List<org.jooq.Field<?>> buildOrderBy(String alias, List<String> identityColumns) {
-        List<org.jooq.Field<?>> orderby = new ArrayList<>();
+    private static org.jooq.Table<?> joinLaterals(org.jooq.Table<?> from, VisitorContext vctx) {
+        for (org.jooq.Table<?> lateral : vctx.laterals) {
+            from = from.leftJoin(lateral).on(DSL.trueCondition());
+        }
+        return from;
+    }
+
+    private boolean isBatched(VisitorContext vctx, Field field, SQLFieldMetadata md) {
+        return md.isRelation()
+                && this.ctx.getRelationStrategy(vctx.type.getName(), field.getName()) == RelationStrategy.BATCH;
+    }
+
+    /**
+     * Selects a key column that was not asked for, under its own name
+     */
+    private static void selectKey(VisitorContext vctx, String column) {
+        vctx.keys.add(column);
+        if (!vctx.selectedColumns.containsKey(column)) {
+            vctx.selectedColumns.put(column, field(name(vctx.alias, column)));
+            vctx.selectedFields.put(column, new Field(column));
+            vctx.unrequestedKeys.add(column);
+        }
+    }
+
+    /**
+     * Turns the root select into the batch of a relation, the rows of all the given parent keys. The
+     * reference key columns are selected, so that the rows can be matched to their parents. Paging of a
+     * relation is per parent, with row_number() over the rows of each parent where the dialect has window
+     * functions, elsewhere it is left to the caller, see {@link #getBatchLimit()}.
+     */
+    public void setBatch(List<String> referenceKeys, Collection<List<Object>> parentKeys) {
+        this.batchColumns = referenceKeys;
+        this.batchKeys = parentKeys;
+    }
+
+    private Condition batchCondition(String alias) {
+        if (this.batchColumns.size() == 1) {
+            List<Object> values = new ArrayList<>();
+            this.batchKeys.forEach(key -> values.add(key.get(0)));
+            return column(alias, this.batchColumns.get(0)).in(values);
+        }
+        List<org.jooq.Field<Object>> columns = new ArrayList<>();
+        this.batchColumns.forEach(col -> columns.add(column(alias, col)));
+        List<RowN> values = new ArrayList<>();
+        this.batchKeys.forEach(key -> values.add(DSL.row(key.toArray())));
+        return DSL.row(columns).in(values);
+    }
+
+    private List<org.jooq.SortField<?>> buildOrderBy(String alias, List<String> identityColumns, boolean descending) {
+        List<org.jooq.SortField<?>> orderby = new ArrayList<>();
         identityColumns.stream().forEach(col -> {
-            org.jooq.Field<?> f = field(name(alias, col));
-            orderby.add(f);
+            org.jooq.Field<?> f = column(alias, col);
+            orderby.add(descending ? f.desc() : f.sortDefault());
+        });
+        return orderby;
+    }
+
+    /**
+     * Requested sort order, followed by the key columns not in it, so that the order is stable across pages
+     */
+    private List<org.jooq.SortField<?>> buildOrderBy(String alias, List<Sort> sorts, List<String> identityColumns) {
+        List<org.jooq.SortField<?>> orderby = new ArrayList<>();
+        Set<String> sorted = new HashSet<>();
+        for (Sort sort : sorts) {
+            org.jooq.Field<?> f = column(alias, sort.column);
+            org.jooq.SortField<?> sf = sort.descending ? f.desc() : f.asc();
+            if ("FIRST".equals(sort.nulls)) {
+                sf = sf.nullsFirst();
+            } else if ("LAST".equals(sort.nulls)) {
+                sf = sf.nullsLast();
+            }
+            orderby.add(sf);
+            sorted.add(sort.column);
+        }
+        identityColumns.stream().filter(col -> !sorted.contains(col)).forEach(col -> {
+            orderby.add(column(alias, col).sortDefault());
         });
         return orderby;
     }
 
+    private static List<Sort> parseOrderBy(GraphQLObjectType type, Value<?> value) {
+        List<Value<?>> values = new ArrayList<>();
+        if (value instanceof ArrayValue) {
+            for (Value<?> v : ((ArrayValue) value).getValues()) {
+                values.add(v);
+            }
+        } else {
+            values.add(value);
+        }
+        List<Sort> sorts = new ArrayList<>();
+        for (Value<?> v : values) {
+            Sort sort = new Sort();
+            for (ObjectField of : ((ObjectValue) v).getObjectFields()) {
+                if (of.getName().equals("field")) {
+                    sort.column = ((StringValue) of.getValue()).getValue();
+                } else if (of.getName().equals("order")) {
+                    sort.descending = ((EnumValue) of.getValue()).getName().equals("DESC");
+                } else if (of.getName().equals("nulls")) {
+                    sort.nulls = ((EnumValue) of.getValue()).getName();
+                }
+            }
+            // only plain columns, never a relation or some made up expression
+            GraphQLFieldDefinition fd = type.getFieldDefinition(sort.column);
+            if (fd == null || sort.column.equals(Cursor.FIELD) || !GraphQLTypeUtil.isScalar(GraphQLTypeUtil.unwrapAll(fd.getType()))) {
+                throw new IllegalArgumentException("orderBy field " + sort.column + " is not a column of "
+                        + type.getName());
+            }
+            sorts.add(sort);
+        }
+        return sorts;
+    }
+
+    private static org.jooq.Field<Object> column(String alias, String col) {
+        return alias == null ? field(name(col)) : field(name(alias, col));
+    }
+
+    /**
+     * True when the rows before a cursor are read in descending key order, so that the limit or the
+     * offset counts from the cursor. The page is put back in key order after. Without either, the rows
+     * are read in key order to begin with.
+     *
+     * @param defaultLimit the default relation limit applies
+     */
+    private static boolean isBackward(VisitorContext vctx, boolean defaultLimit) {
+        return vctx.page != null && vctx.page.before != null && vctx.page.after == null
+                && (defaultLimit || vctx.page.limit != null || vctx.page.offset != null);
+    }
+
+    /**
+     * Keyset pagination, adds "(key columns) &gt; (cursor)" for after, and "&lt;" for before, to the where
+     * clause, so that the database seeks in the key index instead of skipping rows like offset does
+     */
+    private void seek(VisitorContext vctx, String alias, List<String> identityColumns) {
+        if (vctx.page == null || (vctx.page.after == null && vctx.page.before == null)) {
+            return;
+        }
+        if (vctx.orderby != null) {
+            throw new IllegalArgumentException("Cursor pagination follows the key order, it can not be used with orderBy");
+        }
+        if (vctx.page.after != null) {
+            addCondition(vctx, seek(alias, identityColumns, vctx.page.after, true));
+        }
+        if (vctx.page.before != null) {
+            addCondition(vctx, seek(alias, identityColumns, vctx.page.before, false));
+        }
+    }
+
+    private Condition seek(String alias, List<String> identityColumns, StringValue cursor, boolean after) {
+        if (identityColumns.isEmpty()) {
+            throw new IllegalArgumentException("Cursor pagination needs a primary key");
+        }
+        List<Object> values = Cursor.decode(cursor.getValue());
+        if (values.size() != identityColumns.size()) {
+            throw new IllegalArgumentException("Cursor " + cursor.getValue() + " does not match the key "
+                    + identityColumns);
+        }
+        List<org.jooq.Field<Object>> columns = new ArrayList<>();
+        List<org.jooq.Field<Object>> params = new ArrayList<>();
+        for (int i = 0; i < identityColumns.size(); i++) {
+            columns.add(column(alias, identityColumns.get(i)));
+            String name = this.shape != null ? this.shape.paramName(cursor, i) : null;
+            params.add(name != null ? DSL.param(name, values.get(i)) : DSL.val(values.get(i)));
+        }
+        if (columns.size() == 1) {
+            return after ? columns.get(0).gt(params.get(0)) : columns.get(0).lt(params.get(0));
+        }
+        RowN key = DSL.row(columns);
+        RowN value = DSL.row(params);
+        return after ? key.gt(value) : key.lt(value);
+    }
+
+    private static void addCondition(VisitorContext vctx, Condition condition) {
+        vctx.condition = vctx.condition == null ? condition : vctx.condition.and(condition);
+    }
+
     @Override
     public void startVisitRootObject(Field rootField, GraphQLFieldDefinition rootDefinition, GraphQLObjectType type) {
         VisitorContext vctx = new VisitorContext();
-        SQLDirective sqlDirective = SQLDirective.find(type.getDirectives());
-        if (sqlDirective == null) {
+        vctx.type = type;
+        SQLFieldMetadata md = SQLFieldMetadata.of(this.registry, this.parent, rootDefinition);
+        vctx.metadata = md;
+        if (md.getTableName() == null) {
             throw new RuntimeException("No SQL Directive found on field " + rootField.getName());
         }
 
         String alias = alias(this.inc.getAndIncrement());
-        AliasedTable table = new AliasedTable(sqlDirective.getTableName(), alias);
+        AliasedTable table = new AliasedTable(md.getTableName(), alias);
 
         SelectSelectStep<Record> select = this.create.select();
 
@@ -238,15 +534,24 @@ public class SQLQueryBuilderVisitor implements QueryVisitor{
         VisitorContext vctx = this.stack.peek();
 
         // add table
-        vctx.selectClause.from(table(vctx.table.name).as(vctx.table.alias));
+        vctx.selectClause.from(joinLaterals(table(vctx.table.name).as(vctx.table.alias), vctx));
 
-        // add orderby
-        if (vctx.orderby == null) {
-            List<String> identityColumns = getIdentityColumns(type);
-            List<org.jooq.Field<?>> orderby = buildOrderBy(vctx.alias, identityColumns);
-            vctx.selectClause.orderBy(orderby);
-        } else {
-            vctx.selectClause.orderBy(vctx.orderby);
+        List<String> identityColumns = vctx.metadata.getIdentityColumns();
+        seek(vctx, vctx.alias, identityColumns);
+
+        if (this.batchColumns != null) {
+            this.batchColumns.forEach(col -> selectKey(vctx, col));
+            addCondition(vctx, batchCondition(vctx.alias));
+        }
+
+        Integer limit = vctx.page == null || vctx.page.limit == null ? null : vctx.page.limit.getValue().intValue();
+        if (limit == null && this.batchColumns != null && !vctx.metadata.isToOne()) {
+            limit = this.ctx.getDefaultRelationLimit();
+        }
+        boolean backward = isBackward(vctx, limit != null);
+        if (backward && this.batchColumns == null) {
+            // to put the page back in key order
+            identityColumns.forEach(col -> selectKey(vctx, col));
         }
 
         // add where
@@ -255,20 +560,99 @@ public class SQLQueryBuilderVisitor implements QueryVisitor{
         }
 
         List<org.jooq.Field<?>> projected = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
         vctx.selectedColumns.forEach((k,v) -> {
-            projected.add(v.as(fieldName(vctx.selectedFields.get(k))));
+            labels.add(fieldName(vctx.selectedFields.get(k)));
+            projected.add(v.as(labels.get(labels.size() - 1)));
+            this.columnIndexes.put(k, projected.size());
         });
+        if (this.batchColumns != null) {
+            // the rows of a batch are read into maps by label, like the rows of a JSON relation
+            for (String key : aliasedKeys(vctx)) {
+                labels.add(keyLabel(key));
+                projected.add(vctx.selectedColumns.get(key).as(keyLabel(key)));
+            }
+        }
         vctx.selectClause.select(projected);
+        this.relationColumns.addAll(vctx.relations);
+
+        // add orderby
+        List<org.jooq.SortField<?>> orderby;
+        if (vctx.orderby == null) {
+            orderby = buildOrderBy(vctx.alias, identityColumns, backward);
+        } else {
+            orderby = buildOrderBy(vctx.alias, vctx.orderby, identityColumns);
+        }
+        if (this.batchColumns != null) {
+            int offset = vctx.page == null || vctx.page.offset == null ? 0 : vctx.page.offset.getValue().intValue();
+            pageBatch(vctx, limit, offset, backward, orderby, labels);
+            return;
+        }
+        vctx.selectClause.orderBy(orderby);
 
         // add limit & offset
         if (vctx.page != null) {
             if (vctx.page.limit != null) {
-                vctx.selectClause.limit(vctx.page.limit.intValue());
+                vctx.selectClause.limit(bind(vctx.page.limit));
             }
             if (vctx.page.offset != null) {
-                vctx.selectClause.offset(vctx.page.offset.intValue());
+                vctx.selectClause.offset(bind(vctx.page.offset));
             }
         }
+
+        if (backward) {
+            // the page before the cursor, back in key order
+            String alias = vctx.alias + "r";
+            List<org.jooq.Field<?>> fields = new ArrayList<>();
+            labels.forEach(label -> fields.add(field(name(alias, label))));
+            List<org.jooq.SortField<?>> keyOrder = new ArrayList<>();
+            identityColumns.forEach(col -> keyOrder.add(field(name(alias, fieldName(vctx.selectedFields.get(col)))).sortDefault()));
+            SelectSelectStep<Record> select = this.create.select(fields);
+            select.from(vctx.selectClause.asTable(alias)).orderBy(keyOrder);
+            vctx.selectClause = select;
+        }
+    }
+
+    /**
+     * Pages the rows of each parent of a batch. Where the dialect has window functions the rows are
+     * numbered per parent, "row_number() over (partition by reference keys order by ..)", and only
+     * those of the page are read, elsewhere the page is left to {@link #getBatchLimit()}.
+     */
+    private void pageBatch(VisitorContext vctx, Integer limit, int offset, boolean backward,
+            List<org.jooq.SortField<?>> orderby, List<String> labels) {
+        if ((limit == null && offset == 0) || !WINDOW_DIALECTS.contains(this.ctx.getDialect())) {
+            vctx.selectClause.orderBy(orderby);
+            this.batchLimit = limit;
+            this.batchOffset = offset == 0 ? null : offset;
+            this.batchBackward = backward;
+            return;
+        }
+
+        List<org.jooq.Field<?>> partition = new ArrayList<>();
+        this.batchColumns.forEach(col -> partition.add(column(vctx.alias, col)));
+        vctx.selectClause.select(DSL.rowNumber().over(DSL.partitionBy(partition).orderBy(orderby)).as(ROW_NUMBER));
+
+        String alias = vctx.alias + "p";
+        List<org.jooq.Field<?>> fields = new ArrayList<>();
+        labels.forEach(label -> fields.add(field(name(alias, label))));
+        org.jooq.Field<Object> rowNumber = field(name(alias, ROW_NUMBER));
+        SelectSelectStep<Record> select = this.create.select(fields);
+        Condition page = offset == 0 ? DSL.noCondition() : rowNumber.gt(DSL.val(offset));
+        if (limit != null) {
+            page = page.and(rowNumber.le(DSL.val(offset + limit)));
+        }
+        // rows of a parent stay in their order, the loader groups them by parent, the rows before a
+        // cursor were numbered from the cursor backwards
+        select.from(vctx.selectClause.asTable(alias)).where(page).orderBy(backward ? rowNumber.desc() : rowNumber);
+        vctx.selectClause = select;
+    }
+
+    private Param<? extends Number> bind(IntValue value) {
+        String name = this.shape != null ? this.shape.paramName(value) : null;
+        if (name != null) {
+            return DSL.param(name, value.getValue());
+        }
+        return DSL.val(value.getValue().intValue());
     }
 
     private String alias(int i) {
@@ -291,48 +675,97 @@ public class SQLQueryBuilderVisitor implements QueryVisitor{
         return names;
     }
 
-    private AliasedTable buildTable(GraphQLFieldDefinition definition, String alias) {
-        SQLDirective parentDirective = null;
-        if (definition.getType() instanceof GraphQLModifiedType) {
-            GraphQLObjectType type = (GraphQLObjectType)((GraphQLModifiedType)definition.getType()).getWrappedType();
-            parentDirective = SQLDirective.find(type.getDirectives());
-        } else {
-            GraphQLObjectType type = (GraphQLObjectType)definition.getType();
-            parentDirective = SQLDirective.find(type.getDirectives());
-        }
+    public String getSQL() {
+        VisitorContext vctx = this.stack.peek();
+        return vctx.selectClause.toString();
+    }
 
-        // Build the main table
-        AliasedTable table = new AliasedTable(parentDirective.getTableName(), alias);
-        return table;
+    /**
+     * JDBC ordinal of each projected column of the root select, by field name
+     */
+    public Map<String, Integer> getColumnIndexes() {
+        return this.columnIndexes;
     }
 
-    public String getSQL() {
+    /**
+     * Projected columns of the root select that hold the JSON array of a relation, by field name
+     */
+    public Set<String> getRelationColumns() {
+        return this.relationColumns;
+    }
+
+    /**
+     * Page size of a batch, left to the caller to apply to the rows of each parent, null when there is
+     * no limit or the SQL already pages the rows
+     */
+    public Integer getBatchLimit() {
+        return this.batchLimit;
+    }
+
+    public Integer getBatchOffset() {
+        return this.batchOffset;
+    }
+
+    /**
+     * True when the rows of each parent come in descending key order, the caller reverses its page
+     */
+    public boolean isBatchBackward() {
+        return this.batchBackward;
+    }
+
+    /**
+     * SQL with "?" placeholders in place of the argument values, see {@link #getBindValues()}
+     */
+    public String getParameterizedSQL() {
         VisitorContext vctx = this.stack.peek();
-        return vctx.selectClause.toString();
+        return vctx.selectClause.getSQL(ParamType.INDEXED);
+    }
+
+    /**
+     * Values for placeholders in {@link #getParameterizedSQL()}, in the order they need to be bound
+     */
+    public List<Object> getBindValues() {
+        VisitorContext vctx = this.stack.peek();
+        return vctx.selectClause.getBindValues();
+    }
+
+    /**
+     * Bind parameters by name in the order of {@link #getBindValues()}
+     */
+    public Map<String, Param<?>> getParams() {
+        VisitorContext vctx = this.stack.peek();
+        return vctx.selectClause.getParams();
     }
 
     @Override
     public void visitArgument(Field field, GraphQLFieldDefinition definition, GraphQLObjectType type, Argument arg) {
         VisitorContext vctx = this.stack.peek();
+        if (vctx.skip) {
+            return;
+        }
 
         String argName = arg.getName();
         Value<?> argValue = arg.getValue();
 
-        SQLFilterBuilder filterBuilder = new SQLFilterBuilder(vctx.alias);
+        SQLFilterBuilder filterBuilder = new SQLFilterBuilder(vctx.alias, this.shape);
 
         if(argName.equals("page")) {
             Page p = new Page();
             ObjectValue v = (ObjectValue)argValue;
             for (ObjectField of: v.getObjectFields()) {
                 if (of.getName().equals("limit")) {
-                    p.limit = ((IntValue)of.getValue()).getValue();
+                    p.limit = (IntValue)of.getValue();
                 } else if (of.getName().equals("offset")) {
-                    p.offset = ((IntValue)of.getValue()).getValue();
+                    p.offset = (IntValue)of.getValue();
+                } else if (of.getName().equals("after")) {
+                    p.after = (StringValue)of.getValue();
+                } else if (of.getName().equals("before")) {
+                    p.before = (StringValue)of.getValue();
                 }
             }
             vctx.page = p;
         } else if (argName.equals("orderBy")) {
-            // handle orderBy
+            vctx.orderby = parseOrderBy(type, argValue);
         } else if(argName.equals("filter")) {
             LOGGER.debug("Walk through filter results");
             FilterScanner<Condition> filterScanner = new FilterScanner<>(filterBuilder);
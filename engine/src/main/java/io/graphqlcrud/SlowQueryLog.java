@@ -0,0 +1,239 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the most recent statements that took longer than a threshold to execute, with their SQL, bind
+ * values and row count, and optionally their plan. Set it on the {@link SQLContext} of the requests.
+ * The plan is explained on a connection of its own, one statement at a time in the background, and is
+ * skipped when the background thread is busy.
+ */
+public class SlowQueryLog implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    private static final Map<String, String> EXPLAIN = new HashMap<>();
+
+    static {
+        EXPLAIN.put("POSTGRES", "EXPLAIN ");
+        EXPLAIN.put("MYSQL", "EXPLAIN ");
+        EXPLAIN.put("MARIADB", "EXPLAIN ");
+        EXPLAIN.put("H2", "EXPLAIN ");
+        EXPLAIN.put("HSQLDB", "EXPLAIN PLAN FOR ");
+        EXPLAIN.put("SQLITE", "EXPLAIN QUERY PLAN ");
+    }
+
+    /**
+     * A statement slower than the threshold
+     */
+    public static class Entry {
+        private final Instant time;
+        private final String operationName;
+        private final String rootField;
+        private final String sql;
+        private final List<String> bindValues;
+        private final long rows;
+        private final long durationNanos;
+        private volatile String plan;
+
+        Entry(String operationName, String rootField, String sql, List<Object> bindValues, long rows,
+                long durationNanos) {
+            this.time = Instant.now();
+            this.operationName = operationName;
+            this.rootField = rootField;
+            this.sql = sql;
+            List<String> values = new ArrayList<>(bindValues.size());
+            bindValues.forEach(v -> values.add(String.valueOf(v)));
+            this.bindValues = Collections.unmodifiableList(values);
+            this.rows = rows;
+            this.durationNanos = durationNanos;
+        }
+
+        public String getTime() {
+            return this.time.toString();
+        }
+
+        public String getOperationName() {
+            return this.operationName;
+        }
+
+        public String getRootField() {
+            return this.rootField;
+        }
+
+        public String getSql() {
+            return this.sql;
+        }
+
+        public List<String> getBindValues() {
+            return this.bindValues;
+        }
+
+        public long getRows() {
+            return this.rows;
+        }
+
+        /**
+         * Time the database took to execute the statement, up to the first results
+         */
+        public double getDurationMillis() {
+            return this.durationNanos / 1_000_000.0;
+        }
+
+        /**
+         * Output of the dialect's EXPLAIN for the statement, null when not explained (yet)
+         */
+        public String getPlan() {
+            return this.plan;
+        }
+    }
+
+    private final long thresholdNanos;
+    private final int maxEntries;
+    private final Deque<Entry> entries;
+    private final DataSource explainDataSource;
+    private final String explainPrefix;
+    private final ThreadPoolExecutor explainExecutor;
+
+    /**
+     * @param threshold statements that take at least this long are kept
+     * @param maxEntries number of statements kept, the oldest make room for the new ones. 0 keeps none.
+     */
+    public SlowQueryLog(Duration threshold, int maxEntries) {
+        this(threshold, maxEntries, null, null);
+    }
+
+    /**
+     * @param explainDataSource where the plans are explained, null not to explain them
+     * @param dialect dialect of the database, the plans of a dialect without a known EXPLAIN are not explained
+     */
+    public SlowQueryLog(Duration threshold, int maxEntries, DataSource explainDataSource, String dialect) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("The entries of a slow query log can not be negative");
+        }
+        this.thresholdNanos = threshold.toNanos();
+        this.maxEntries = maxEntries;
+        this.entries = new ArrayDeque<>(maxEntries);
+        this.explainPrefix = dialect == null ? null : EXPLAIN.get(dialect.toUpperCase());
+        this.explainDataSource = this.explainPrefix == null || maxEntries == 0 ? null : explainDataSource;
+        if (this.explainDataSource != null) {
+            this.explainExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(maxEntries), r -> {
+                        Thread t = new Thread(r, "graphqlcrud-slow-query-explain");
+                        t.setDaemon(true);
+                        return t;
+                    }, new ThreadPoolExecutor.DiscardPolicy());
+        } else {
+            this.explainExecutor = null;
+        }
+    }
+
+    public boolean isSlow(long durationNanos) {
+        return this.maxEntries > 0 && durationNanos >= this.thresholdNanos;
+    }
+
+    /**
+     * False when the log keeps no entries, there is no point in setting it on the requests then
+     */
+    public boolean isEnabled() {
+        return this.maxEntries > 0;
+    }
+
+    /**
+     * Keeps the statement, the caller checks {@link #isSlow(long)} first
+     */
+    public void record(String operationName, String rootField, String sql, List<Object> bindValues, long rows,
+            long durationNanos) {
+        Entry entry = new Entry(operationName, rootField, sql, bindValues, rows, durationNanos);
+        synchronized (this.entries) {
+            if (this.entries.size() == this.maxEntries) {
+                this.entries.removeLast();
+            }
+            this.entries.addFirst(entry);
+        }
+        if (this.explainExecutor != null) {
+            this.explainExecutor.execute(() -> explain(entry, bindValues));
+        }
+    }
+
+    private void explain(Entry entry, List<Object> bindValues) {
+        try (Connection c = this.explainDataSource.getConnection();
+                PreparedStatement stmt = c.prepareStatement(this.explainPrefix + entry.sql)) {
+            SQLDataFetcher.bind(stmt, bindValues);
+            StringBuilder plan = new StringBuilder();
+            try (ResultSet rs = stmt.executeQuery()) {
+                int columns = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    if (plan.length() > 0) {
+                        plan.append('\n');
+                    }
+                    for (int i = 1; i <= columns; i++) {
+                        if (i > 1) {
+                            plan.append(" | ");
+                        }
+                        plan.append(rs.getString(i));
+                    }
+                }
+            }
+            entry.plan = plan.toString();
+        } catch (Exception e) {
+            LOGGER.warn("Failed to explain the slow query " + entry.sql, e);
+        }
+    }
+
+    /**
+     * The statements kept, the most recent first
+     */
+    public List<Entry> getEntries() {
+        synchronized (this.entries) {
+            return new ArrayList<>(this.entries);
+        }
+    }
+
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.explainExecutor != null) {
+            this.explainExecutor.shutdownNow();
+        }
+    }
+}
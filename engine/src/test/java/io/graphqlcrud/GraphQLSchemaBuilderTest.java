@@ -92,4 +92,42 @@ public class GraphQLSchemaBuilderTest {
             Assertions.assertTrue(holdings.getArgument("filter").getType().toString().contains("HoldingsFilterInput"));
         }
    }
+
+    @Test
+    public void testFieldMetadata() throws Exception {
+        try (Connection connection = this.datasource.getConnection()){
+            Schema s = DatabaseSchemaBuilder.getSchema(connection, "PUBLIC");
+            GraphQLSchema schema = GraphQLSchemaBuilder.getSchema(s);
+
+            GraphQLObjectType customerType = schema.getObjectType("CUSTOMER");
+            GraphQLFieldDefinition accountsDef = customerType.getFieldDefinition("accounts");
+            // kept by the fetcher of the field
+            SQLFieldMetadata accounts = SQLFieldMetadata.of(schema.getCodeRegistry(), customerType, accountsDef);
+            Assertions.assertSame(accounts, SQLFieldMetadata.of(schema.getCodeRegistry(), customerType, accountsDef));
+            Assertions.assertSame(accounts, ((RowFetcher) schema.getCodeRegistry().getDataFetcher(customerType, accountsDef))
+                    .getMetadata(accountsDef));
+            Assertions.assertTrue(accounts.isRelation());
+            Assertions.assertFalse(accounts.isToOne());
+            Assertions.assertEquals("[SSN]", accounts.getKeys().toString());
+            Assertions.assertEquals("[SSN]", accounts.getReferenceKeys().toString());
+            Assertions.assertEquals("PUBLIC.ACCOUNT", accounts.getTableName());
+            Assertions.assertEquals("[ACCOUNT_ID]", accounts.getIdentityColumns().toString());
+
+            SQLFieldMetadata customer = SQLFieldMetadata.of(schema.getObjectType("ACCOUNT").getFieldDefinition("customer"));
+            Assertions.assertTrue(customer.isToOne());
+            Assertions.assertEquals("PUBLIC.CUSTOMER", customer.getTableName());
+
+            SQLFieldMetadata ssn = SQLFieldMetadata.of(schema.getObjectType("CUSTOMER").getFieldDefinition("SSN"));
+            Assertions.assertFalse(ssn.isRelation());
+            Assertions.assertNull(ssn.getTableName());
+            Assertions.assertEquals("SSN", ssn.getColumnName());
+
+            // root fields keep theirs in the fetcher of the field too
+            GraphQLFieldDefinition customersDef = schema.getQueryType().getFieldDefinition("customers");
+            SQLFieldMetadata customers = SQLFieldMetadata.of(schema.getCodeRegistry(), schema.getQueryType(), customersDef);
+            Assertions.assertSame(customers, SQLFieldMetadata.of(schema.getCodeRegistry(), schema.getQueryType(), customersDef));
+            Assertions.assertFalse(customers.isRelation());
+            Assertions.assertEquals("PUBLIC.CUSTOMER", customers.getTableName());
+        }
+    }
 }
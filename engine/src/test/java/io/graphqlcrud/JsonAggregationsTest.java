@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.inline;
+import static org.jooq.impl.DSL.jsonEntry;
+import static org.jooq.impl.DSL.name;
+import static org.jooq.impl.DSL.table;
+
+import java.util.Collections;
+
+import org.jooq.DSLContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class JsonAggregationsTest {
+
+    private static String render(String dialect) {
+        DSLContext create = DSLContexts.get(dialect);
+        return create.render(create.select(JsonAggregations.get(dialect).arrayAgg(Collections.singletonList(
+                jsonEntry(inline("id", String.class), field(name("g1", "ID")))))).from(table(name("T")).as("g1")));
+    }
+
+    @Test
+    public void testDialects() {
+        Assertions.assertEquals("select json_agg(json_build_object('id', \"g1\".\"ID\")) from \"T\" as \"g1\"",
+                render("POSTGRES"));
+        Assertions.assertEquals("select json_arrayagg(json_object('id', `g1`.`ID`)) from `T` as `g1`",
+                render("MYSQL"));
+        Assertions.assertEquals("select json_arrayagg(json_object(key 'id' value \"g1\".\"ID\")) from \"T\" \"g1\"",
+                render("H2"));
+        Assertions.assertEquals("select json_arrayagg(json_object(key 'id' value \"g1\".\"ID\")) from \"T\" \"g1\"",
+                render("DEFAULT"));
+    }
+}
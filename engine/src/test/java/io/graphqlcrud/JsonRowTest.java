@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class JsonRowTest {
+
+    private static final String JSON = "[{\"ssn\":\"CST01002\",\"accounts\":[{\"id\":1,\"balance\":10.5,\"open\":true}]},"
+            + "{\"accounts\":[],\"ssn\":\"CST01003\",\"phone\":null}]";
+
+    @Test
+    public void testParseArray() throws Exception {
+        List<Object> rows = JsonRow.parseArray(JSON.getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(2, rows.size());
+
+        Map<?, ?> first = (Map<?, ?>) rows.get(0);
+        Assertions.assertEquals("CST01002", first.get("ssn"));
+        Assertions.assertNull(first.get("phone"));
+        Map<?, ?> account = (Map<?, ?>) ((List<?>) first.get("accounts")).get(0);
+        Assertions.assertEquals(1, account.get("id"));
+        Assertions.assertEquals(10.5d, account.get("balance"));
+        Assertions.assertEquals(Boolean.TRUE, account.get("open"));
+
+        // keys in a different order still resolve to their own values
+        Map<?, ?> second = (Map<?, ?>) rows.get(1);
+        Assertions.assertEquals("CST01003", second.get("ssn"));
+        Assertions.assertTrue(((List<?>) second.get("accounts")).isEmpty());
+        Assertions.assertTrue(second.containsKey("phone"));
+    }
+
+    @Test
+    public void testSameAsObjectMapper() throws Exception {
+        byte[] data = JSON.getBytes(StandardCharsets.UTF_8);
+        List<?> expected = new ObjectMapper().readValue(data, List.class);
+        List<Object> rows = JsonRow.parseArray(data);
+        Assertions.assertEquals(expected, rows);
+    }
+}
@@ -15,9 +15,30 @@
  */
 package io.graphqlcrud;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import javax.inject.Inject;
+import javax.sql.DataSource;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -110,7 +131,6 @@ class SQLDataFetcherTest {
           "    }\n" +
           "  }\n" +
           "}";
-        String result4 = executeSQL(query4);
         String expected = "select\n" +
                 "  \"g0\".\"SSN\" \"SSN\",\n" +
                 "  (\n" +
@@ -124,7 +144,22 @@ class SQLDataFetcherTest {
                 "  ) \"accounts\"\n" +
                 "from PUBLIC.CUSTOMER \"g0\"\n" +
                 "order by \"g0\".\"SSN\"";
-        Assertions.assertEquals(expected, result4);
+        String lateral = "select\n" +
+                "  \"g0\".\"SSN\" \"SSN\",\n" +
+                "  \"g1j\".\"accounts\" \"accounts\"\n" +
+                "from PUBLIC.CUSTOMER \"g0\"\n" +
+                "  left outer join lateral (\n" +
+                "    select json_arrayagg(json_object(key 'id' value \"g1\".\"ACCOUNT_ID\")) \"accounts\"\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from PUBLIC.ACCOUNT\n" +
+                "      where \"g0\".\"SSN\" = \"SSN\"\n" +
+                "      order by \"ACCOUNT_ID\"\n" +
+                "    ) \"g1\"\n" +
+                "  ) \"g1j\"\n" +
+                "    on true\n" +
+                "order by \"g0\".\"SSN\"";
+        assertNestedSQL(query4, expected, lateral);
     }
 
     @Test
@@ -141,7 +176,6 @@ class SQLDataFetcherTest {
           "    }\n" +
           "  }\n" +
           "}";
-        String result4 = executeSQL(query4);
         String expected = "select\n" +
                 "  \"g0\".\"SSN\" \"SSN\",\n" +
                 "  (\n" +
@@ -166,7 +200,35 @@ class SQLDataFetcherTest {
                 "  ) \"accounts\"\n" +
                 "from PUBLIC.CUSTOMER \"g0\"\n" +
                 "order by \"g0\".\"SSN\"";
-        Assertions.assertEquals(expected, result4);
+        String lateral = "select\n" +
+                "  \"g0\".\"SSN\" \"SSN\",\n" +
+                "  \"g1j\".\"addreses\" \"addreses\",\n" +
+                "  \"g2j\".\"accounts\" \"accounts\"\n" +
+                "from PUBLIC.CUSTOMER \"g0\"\n" +
+                "  left outer join lateral (\n" +
+                "    select json_arrayagg(json_object(\n" +
+                "      key 'CITY' value \"g1\".\"CITY\",\n" +
+                "      key 'STATE' value \"g1\".\"STATE\"\n" +
+                "    )) \"addreses\"\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from PUBLIC.ADDRESS\n" +
+                "      where \"g0\".\"SSN\" = \"SSN\"\n" +
+                "    ) \"g1\"\n" +
+                "  ) \"g1j\"\n" +
+                "    on true\n" +
+                "  left outer join lateral (\n" +
+                "    select json_arrayagg(json_object(key 'id' value \"g2\".\"ACCOUNT_ID\")) \"accounts\"\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from PUBLIC.ACCOUNT\n" +
+                "      where \"g0\".\"SSN\" = \"SSN\"\n" +
+                "      order by \"ACCOUNT_ID\"\n" +
+                "    ) \"g2\"\n" +
+                "  ) \"g2j\"\n" +
+                "    on true\n" +
+                "order by \"g0\".\"SSN\"";
+        assertNestedSQL(query4, expected, lateral);
     }
 
     @Test
@@ -183,7 +245,6 @@ class SQLDataFetcherTest {
           "    }\n" +
           "  }\n" +
           "}";
-        String result4 = executeSQL(query4);
         String expected = "select\n" +
                 "  \"g0\".\"FIRSTNAME\" \"FIRSTNAME\",\n" +
                 "  (\n" +
@@ -211,7 +272,38 @@ class SQLDataFetcherTest {
                 "  ) \"accounts\"\n" +
                 "from PUBLIC.CUSTOMER \"g0\"\n" +
                 "order by \"g0\".\"SSN\"";
-        Assertions.assertEquals(expected,result4);
+        String lateral = "select\n" +
+                "  \"g0\".\"FIRSTNAME\" \"FIRSTNAME\",\n" +
+                "  \"g1j\".\"accounts\" \"accounts\"\n" +
+                "from PUBLIC.CUSTOMER \"g0\"\n" +
+                "  left outer join lateral (\n" +
+                "    select json_arrayagg(json_object(\n" +
+                "      key 'id' value \"g1\".\"ACCOUNT_ID\",\n" +
+                "      key 'holdinges' value \"g2j\".\"holdinges\"\n" +
+                "    )) \"accounts\"\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from PUBLIC.ACCOUNT\n" +
+                "      where \"g0\".\"SSN\" = \"SSN\"\n" +
+                "      order by \"ACCOUNT_ID\"\n" +
+                "    ) \"g1\"\n" +
+                "      left outer join lateral (\n" +
+                "        select json_arrayagg(json_object(\n" +
+                "          key 'id' value \"g2\".\"PRODUCT_ID\",\n" +
+                "          key 'SHARES_COUNT' value \"g2\".\"SHARES_COUNT\"\n" +
+                "        )) \"holdinges\"\n" +
+                "        from (\n" +
+                "          select *\n" +
+                "          from PUBLIC.HOLDINGS\n" +
+                "          where \"g1\".\"ACCOUNT_ID\" = \"ACCOUNT_ID\"\n" +
+                "          order by \"TRANSACTION_ID\"\n" +
+                "        ) \"g2\"\n" +
+                "      ) \"g2j\"\n" +
+                "        on true\n" +
+                "  ) \"g1j\"\n" +
+                "    on true\n" +
+                "order by \"g0\".\"SSN\"";
+        assertNestedSQL(query4, expected, lateral);
     }
 
     @Test
@@ -585,7 +677,6 @@ class SQLDataFetcherTest {
                 "    }\n" +
                 "  }\n" +
                 "}";
-        String result = executeSQL(query);
         String expected = "select\n" +
                 "  \"g0\".\"FIRSTNAME\" \"FIRSTNAME\",\n" +
                 "  \"g0\".\"LASTNAME\" \"LASTNAME\",\n" +
@@ -614,7 +705,37 @@ class SQLDataFetcherTest {
                 "  )\n" +
                 ")\n" +
                 "order by \"g0\".\"SSN\"";
-        Assertions.assertEquals(expected,result);
+        String lateral = "select\n" +
+                "  \"g0\".\"FIRSTNAME\" \"FIRSTNAME\",\n" +
+                "  \"g0\".\"LASTNAME\" \"LASTNAME\",\n" +
+                "  \"g0\".\"SSN\" \"SSN\",\n" +
+                "  \"g1j\".\"accounts\" \"accounts\"\n" +
+                "from PUBLIC.CUSTOMER \"g0\"\n" +
+                "  left outer join lateral (\n" +
+                "    select json_arrayagg(json_object(\n" +
+                "      key 'ACCOUNT_ID' value \"g1\".\"ACCOUNT_ID\",\n" +
+                "      key 'STATUS' value \"g1\".\"STATUS\"\n" +
+                "    )) \"accounts\"\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from PUBLIC.ACCOUNT\n" +
+                "      where \"g0\".\"SSN\" = \"SSN\"\n" +
+                "      order by \"ACCOUNT_ID\"\n" +
+                "    ) \"g1\"\n" +
+                "  ) \"g1j\"\n" +
+                "    on true\n" +
+                "where (\n" +
+                "  (\n" +
+                "    \"g0\".\"LASTNAME\" <> 'Smith'\n" +
+                "    and \"g0\".\"SSN\" = 'CST01002'\n" +
+                "  )\n" +
+                "  or (\n" +
+                "    \"g0\".\"LASTNAME\" <> 'Aire'\n" +
+                "    and \"g0\".\"FIRSTNAME\" <> 'Jane'\n" +
+                "  )\n" +
+                ")\n" +
+                "order by \"g0\".\"SSN\"";
+        assertNestedSQL(query, expected, lateral);
     }
 
     @Test
@@ -1284,7 +1405,1195 @@ class SQLDataFetcherTest {
     }
 
     @Test
-    public String executeSQL(String query) throws Exception {
+    public void testBindParameters() throws Exception {
+        String query = "{\n" +
+                "  customers (filter: {\n" +
+                "    SSN: {\n" +
+                "      ne: \"CST01002\"\n" +
+                "    }\n" +
+                "  }, page: {limit: 2}) {\n" +
+                "    SSN\n" +
+                "  }\n" +
+                "}";
+        SQLContext ctx = executeWithBindParameters(query);
+        String expected = "select \"g0\".\"SSN\" \"SSN\" from PUBLIC.CUSTOMER \"g0\" "
+                + "where \"g0\".\"SSN\" <> ? order by \"g0\".\"SSN\" limit ?";
+        Assertions.assertEquals(expected, ctx.getSQL());
+        Assertions.assertEquals("[CST01002, 2]", ctx.getBindValues().toString());
+    }
+
+    @Test
+    public void testQueryPlanCache() throws Exception {
+        String query = "{\n" +
+                "  customers (filter: {\n" +
+                "    SSN: {\n" +
+                "      in: [%s]\n" +
+                "    }\n" +
+                "  }, page: {limit: %d}) {\n" +
+                "    SSN\n" +
+                "  }\n" +
+                "}";
+        SQLDataFetcher fetcher = (SQLDataFetcher) this.graphQLSchema.getCodeRegistry().getDataFetcher(
+                this.graphQLSchema.getQueryType(), this.graphQLSchema.getQueryType().getFieldDefinition("customers"));
+        QueryPlanCache cache = fetcher.getPlanCache();
+        long hits = cache.getHitCount();
+        long misses = cache.getMissCount();
+
+        SQLContext ctx1 = executeWithBindParameters(String.format(query, "\"CST01002\", \"CST01003\"", 2));
+        SQLContext ctx2 = executeWithBindParameters(String.format(query, "\"CST01004\", \"CST01005\"", 1));
+        Assertions.assertEquals(misses + 1, cache.getMissCount());
+        Assertions.assertEquals(hits + 1, cache.getHitCount());
+        Assertions.assertEquals(ctx1.getSQL(), ctx2.getSQL());
+        Assertions.assertEquals("[CST01002, CST01003, 2]", ctx1.getBindValues().toString());
+        Assertions.assertEquals("[CST01004, CST01005, 1]", ctx2.getBindValues().toString());
+
+        // different number of values in the list is a different shape
+        executeWithBindParameters(String.format(query, "\"CST01002\"", 2));
+        Assertions.assertEquals(misses + 2, cache.getMissCount());
+    }
+
+    @Test
+    public void testQueryPlanCacheDirectives() throws Exception {
+        String query = "query Names($names: Boolean!) {\n" +
+                "  customers (page: {limit: 2}) {\n" +
+                "    SSN\n" +
+                "    FIRSTNAME @include(if: $names)\n" +
+                "    LASTNAME @skip(if: $names)\n" +
+                "  }\n" +
+                "}";
+        List<String> sql = new ArrayList<>();
+        for (boolean names : new boolean[] {true, false, true}) {
+            try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
+                ctx.setDialect("DEFAULT");
+                ctx.setBindParameters(true);
+                ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                        .execute(ExecutionInput.newExecutionInput().query(query).context(ctx)
+                                .variables(Collections.singletonMap("names", names)).build());
+                Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+                sql.add(ctx.getSQL());
+
+                // the plan of the other value would select the wrong columns
+                Map<String, List<Map<String, Object>>> data = executionResult.getData();
+                for (Map<String, Object> customer : data.get("customers")) {
+                    Assertions.assertEquals(names, customer.get("FIRSTNAME") != null, customer.toString());
+                    Assertions.assertEquals(!names, customer.get("LASTNAME") != null, customer.toString());
+                }
+            }
+        }
+        Assertions.assertTrue(sql.get(0).contains("FIRSTNAME"), sql.get(0));
+        Assertions.assertFalse(sql.get(1).contains("FIRSTNAME"), sql.get(1));
+        Assertions.assertEquals(sql.get(0), sql.get(2));
+    }
+
+    @Test
+    public void testColumnIndexes() throws Exception {
+        String query = "{\n" +
+                "  customers (page: {limit: 2}) {\n" +
+                "    id: SSN\n" +
+                "    FIRSTNAME\n" +
+                "  }\n" +
+                "}";
+        try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
+            ctx.setDialect("DEFAULT");
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx).build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+
+            // aliased columns are read by their position in the select
+            Map<String, List<Map<String, Object>>> data = executionResult.getData();
+            List<Map<String, Object>> customers = data.get("customers");
+            Assertions.assertEquals(2, customers.size());
+            for (Map<String, Object> customer : customers) {
+                Assertions.assertTrue(customer.get("id").toString().startsWith("CST"));
+                Assertions.assertNotNull(customer.get("FIRSTNAME"));
+            }
+        }
+    }
+
+    @Test
+    public void testParallelRootFields() throws Exception {
+        String query = "{\n" +
+                "  customers { SSN }\n" +
+                "  accounts { ACCOUNT_ID }\n" +
+                "  products { ID }\n" +
+                "}";
+        // the test database runs import.sql for every new connection, which drops the tables. Have the pool
+        // create its connections up front, so that no script runs while the root fields are being fetched
+        try (Connection c1 = this.datasource.getConnection(); Connection c2 = this.datasource.getConnection();
+                Connection c3 = this.datasource.getConnection()) {
+            Assertions.assertNotNull(c3);
+        }
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
+            ctx.setDialect("DEFAULT");
+            ctx.setBindParameters(true);
+            ctx.setParallelExecution(this.datasource, new BoundedExecutor(executor, 2));
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx).build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+
+            Map<String, List<Map<String, Object>>> data = executionResult.getData();
+            Assertions.assertFalse(data.get("customers").isEmpty());
+            Assertions.assertFalse(data.get("accounts").isEmpty());
+            Assertions.assertFalse(data.get("products").isEmpty());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelRootFieldsConnectionLimit() throws Exception {
+        String query = "{\n" +
+                "  customers { SSN }\n" +
+                "  accounts { ACCOUNT_ID }\n" +
+                "  products { ID }\n" +
+                "  customer(SSN : \"CST01002\") { SSN }\n" +
+                "}";
+        try (Connection c1 = this.datasource.getConnection(); Connection c2 = this.datasource.getConnection()) {
+            Assertions.assertNotNull(c2);
+        }
+        // counts the connections borrowed and not given back yet
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        DataSource counting = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {DataSource.class}, (proxy, method, args) -> {
+                    Object result = invoke(method, this.datasource, args);
+                    if (!method.getName().equals("getConnection")) {
+                        return result;
+                    }
+                    maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    AtomicBoolean closed = new AtomicBoolean();
+                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class},
+                            (p, m, a) -> {
+                                if (m.getName().equals("close") && closed.compareAndSet(false, true)) {
+                                    active.decrementAndGet();
+                                }
+                                return invoke(m, result, a);
+                            });
+                });
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (SQLContext ctx = new SQLContext(counting)) {
+            ctx.setDialect("DEFAULT");
+            ctx.setBindParameters(true);
+            ctx.setParallelExecution(counting, new BoundedExecutor(executor, 2));
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx).build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+
+            Map<String, Object> data = executionResult.getData();
+            Assertions.assertFalse(((List<?>) data.get("products")).isEmpty());
+            Assertions.assertEquals("CST01002", ((Map<?, ?>) data.get("customer")).get("SSN"));
+            // each field gives its connection back once read, rather than when the request ends
+            Assertions.assertTrue(maxActive.get() <= 2, "borrowed " + maxActive.get() + " connections");
+            Assertions.assertEquals(0, active.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Test
+    public void testReleaseConnectionWhenDrained() throws Exception {
+        String query = "{\n" +
+                "  customers { SSN }\n" +
+                "  accounts { ACCOUNT_ID }\n" +
+                "}";
+        try (SQLContext ctx = new SQLContext(this.datasource)) {
+            ctx.setDialect("DEFAULT");
+            ctx.setBindParameters(true);
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx).build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+
+            // each root field borrowed the connection again after the previous one gave it back
+            Map<String, List<Map<String, Object>>> data = executionResult.getData();
+            Assertions.assertFalse(data.get("customers").isEmpty());
+            Assertions.assertFalse(data.get("accounts").isEmpty());
+            Assertions.assertNull(ctx.getStmt());
+            Assertions.assertNull(ctx.getResultSet());
+        }
+    }
+
+    @Test
+    public void testCursorPagination() throws Exception {
+        String cursor = Cursor.encode(Arrays.asList("CST01002"));
+        Assertions.assertEquals("[CST01002]", Cursor.decode(cursor).toString());
+
+        String query = "{\n" +
+                "  customers (page: {after: \"" + cursor + "\", limit: 2}) {\n" +
+                "    SSN\n" +
+                "    accounts (page: {before: \"" + Cursor.encode(Arrays.asList(19980005)) + "\"}) {\n" +
+                "      ACCOUNT_ID\n" +
+                "    }\n" +
+                "  }\n" +
+                "}";
+        String expected = "select\n" +
+                "  \"g0\".\"SSN\" \"SSN\",\n" +
+                "  (\n" +
+                "    select json_arrayagg(json_object(key 'ACCOUNT_ID' value \"g1\".\"ACCOUNT_ID\"))\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from PUBLIC.ACCOUNT\n" +
+                "      where (\n" +
+                "        \"g0\".\"SSN\" = \"SSN\"\n" +
+                "        and \"ACCOUNT_ID\" < 19980005\n" +
+                "      )\n" +
+                "      order by \"ACCOUNT_ID\"\n" +
+                "    ) \"g1\"\n" +
+                "  ) \"accounts\"\n" +
+                "from PUBLIC.CUSTOMER \"g0\"\n" +
+                "where \"g0\".\"SSN\" > 'CST01002'\n" +
+                "order by \"g0\".\"SSN\"\n" +
+                "limit 2";
+        String lateral = "select\n" +
+                "  \"g0\".\"SSN\" \"SSN\",\n" +
+                "  \"g1j\".\"accounts\" \"accounts\"\n" +
+                "from PUBLIC.CUSTOMER \"g0\"\n" +
+                "  left outer join lateral (\n" +
+                "    select json_arrayagg(json_object(key 'ACCOUNT_ID' value \"g1\".\"ACCOUNT_ID\")) \"accounts\"\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from PUBLIC.ACCOUNT\n" +
+                "      where (\n" +
+                "        \"g0\".\"SSN\" = \"SSN\"\n" +
+                "        and \"ACCOUNT_ID\" < 19980005\n" +
+                "      )\n" +
+                "      order by \"ACCOUNT_ID\"\n" +
+                "    ) \"g1\"\n" +
+                "  ) \"g1j\"\n" +
+                "    on true\n" +
+                "where \"g0\".\"SSN\" > 'CST01002'\n" +
+                "order by \"g0\".\"SSN\"\n" +
+                "limit 2";
+        assertNestedSQL(query, expected, lateral);
+    }
+
+    @Test
+    public void testCursorPaginationPlan() throws Exception {
+        String query = "{\n" +
+                "  customers (page: {after: \"%s\", limit: 1}) {\n" +
+                "    SSN\n" +
+                "  }\n" +
+                "}";
+        SQLContext ctx1 = executeWithBindParameters(String.format(query, Cursor.encode(Arrays.asList("CST01002"))));
+        SQLContext ctx2 = executeWithBindParameters(String.format(query, Cursor.encode(Arrays.asList("CST01003"))));
+        String expected = "select \"g0\".\"SSN\" \"SSN\" from PUBLIC.CUSTOMER \"g0\" "
+                + "where \"g0\".\"SSN\" > ? order by \"g0\".\"SSN\" limit ?";
+        Assertions.assertEquals(expected, ctx1.getSQL());
+        Assertions.assertEquals(expected, ctx2.getSQL());
+        // the key values are taken out of the cursor also when the plan comes from the cache
+        Assertions.assertEquals("[CST01002, 1]", ctx1.getBindValues().toString());
+        Assertions.assertEquals("[CST01003, 1]", ctx2.getBindValues().toString());
+    }
+
+    @Test
+    public void testCursorPaginationBefore() throws Exception {
+        String query = "{\n" +
+                "  customers (page: {before: \"" + Cursor.encode(Arrays.asList("CST01005")) + "\", limit: 2}) {\n" +
+                "    id: SSN\n" +
+                "    _cursor\n" +
+                "  }\n" +
+                "}";
+        try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
+            ctx.setDialect("DEFAULT");
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx).build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+
+            // the rows nearest to the cursor, in key order, each with its own cursor
+            Map<String, List<Map<String, Object>>> data = executionResult.getData();
+            List<Map<String, Object>> customers = data.get("customers");
+            Assertions.assertEquals("[CST01003, CST01004]",
+                    customers.stream().map(c -> c.get("id")).collect(Collectors.toList()).toString());
+            for (Map<String, Object> customer : customers) {
+                Assertions.assertEquals(Cursor.encode(Arrays.asList(customer.get("id"))), customer.get("_cursor"));
+            }
+        }
+
+        query = "{\n" +
+                "  customers {\n" +
+                "    SSN\n" +
+                "    accounts (page: {before: \"" + Cursor.encode(Arrays.asList(19980005)) + "\", limit: 1}) {\n" +
+                "      _cursor\n" +
+                "    }\n" +
+                "  }\n" +
+                "}";
+        String expected = "select\n" +
+                "  \"g0\".\"SSN\" \"SSN\",\n" +
+                "  (\n" +
+                "    select json_arrayagg(json_object(key 'ACCOUNT_ID' value \"g1\".\"ACCOUNT_ID\"))\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from (\n" +
+                "        select *\n" +
+                "        from PUBLIC.ACCOUNT\n" +
+                "        where (\n" +
+                "          \"g0\".\"SSN\" = \"SSN\"\n" +
+                "          and \"ACCOUNT_ID\" < 19980005\n" +
+                "        )\n" +
+                "        order by \"ACCOUNT_ID\" desc\n" +
+                "        limit 1\n" +
+                "      ) \"g1r\"\n" +
+                "      order by \"ACCOUNT_ID\"\n" +
+                "    ) \"g1\"\n" +
+                "  ) \"accounts\"\n" +
+                "from PUBLIC.CUSTOMER \"g0\"\n" +
+                "order by \"g0\".\"SSN\"";
+        String lateral = "select\n" +
+                "  \"g0\".\"SSN\" \"SSN\",\n" +
+                "  \"g1j\".\"accounts\" \"accounts\"\n" +
+                "from PUBLIC.CUSTOMER \"g0\"\n" +
+                "  left outer join lateral (\n" +
+                "    select json_arrayagg(json_object(key 'ACCOUNT_ID' value \"g1\".\"ACCOUNT_ID\")) \"accounts\"\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from (\n" +
+                "        select *\n" +
+                "        from PUBLIC.ACCOUNT\n" +
+                "        where (\n" +
+                "          \"g0\".\"SSN\" = \"SSN\"\n" +
+                "          and \"ACCOUNT_ID\" < 19980005\n" +
+                "        )\n" +
+                "        order by \"ACCOUNT_ID\" desc\n" +
+                "        limit 1\n" +
+                "      ) \"g1r\"\n" +
+                "      order by \"ACCOUNT_ID\"\n" +
+                "    ) \"g1\"\n" +
+                "  ) \"g1j\"\n" +
+                "    on true\n" +
+                "order by \"g0\".\"SSN\"";
+        assertNestedSQL(query, expected, lateral);
+    }
+
+    @Test
+    public void testBatchedCursorPaginationBefore() throws Exception {
+        String query = "{\n" +
+                "  accounts {\n" +
+                "    ACCOUNT_ID\n" +
+                "    holdinges %s {\n" +
+                "      TRANSACTION_ID\n" +
+                "      _cursor\n" +
+                "    }\n" +
+                "  }\n" +
+                "}";
+        String page = "(page: {before: \"" + Cursor.encode(Arrays.asList(Integer.MAX_VALUE)) + "\", limit: 2})";
+        List<Object> all = holdings(String.format(query, ""), 19980003);
+        List<Object> last = holdings(String.format(query, page), 19980003);
+
+        // read backwards from the cursor, then put back in key order for every parent
+        Assertions.assertTrue(all.size() > 2, all.toString());
+        Assertions.assertEquals(all.subList(all.size() - 2, all.size()), last);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> holdings(String query, int account) throws Exception {
+        try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
+            ctx.setDialect("DEFAULT");
+            ctx.setRelationStrategy(RelationStrategy.BATCH);
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx)
+                            .dataLoaderRegistry(ctx.getDataLoaderRegistry()).build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+
+            Map<String, List<Map<String, Object>>> data = executionResult.getData();
+            Map<String, Object> parent = data.get("accounts").stream()
+                    .filter(a -> a.get("ACCOUNT_ID").toString().equals(String.valueOf(account))).findFirst().get();
+            List<Object> ids = new ArrayList<>();
+            for (Map<String, Object> holding : (List<Map<String, Object>>) parent.get("holdinges")) {
+                Assertions.assertEquals("[" + holding.get("TRANSACTION_ID") + "]",
+                        Cursor.decode((String) holding.get("_cursor")).toString());
+                ids.add(holding.get("TRANSACTION_ID"));
+            }
+            return ids;
+        }
+    }
+
+    @Test
+    public void testOrderBy() throws Exception {
+        String query = "{\n" +
+                "  customers (orderBy: [{field: \"LASTNAME\", order: DESC}, {field: \"FIRSTNAME\", nulls: LAST}]) {\n" +
+                "    SSN\n" +
+                "    accounts (orderBy: {field: \"DATEOPENED\", nulls: FIRST}) {\n" +
+                "      ACCOUNT_ID\n" +
+                "    }\n" +
+                "  }\n" +
+                "}";
+        String expected = "select\n" +
+                "  \"g0\".\"SSN\" \"SSN\",\n" +
+                "  (\n" +
+                "    select json_arrayagg(json_object(key 'ACCOUNT_ID' value \"g1\".\"ACCOUNT_ID\"))\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from PUBLIC.ACCOUNT\n" +
+                "      where \"g0\".\"SSN\" = \"SSN\"\n" +
+                "      order by\n" +
+                "        \"DATEOPENED\" asc nulls first,\n" +
+                "        \"ACCOUNT_ID\"\n" +
+                "    ) \"g1\"\n" +
+                "  ) \"accounts\"\n" +
+                "from PUBLIC.CUSTOMER \"g0\"\n" +
+                "order by\n" +
+                "  \"g0\".\"LASTNAME\" desc,\n" +
+                "  \"g0\".\"FIRSTNAME\" asc nulls last,\n" +
+                "  \"g0\".\"SSN\"";
+        String lateral = "select\n" +
+                "  \"g0\".\"SSN\" \"SSN\",\n" +
+                "  \"g1j\".\"accounts\" \"accounts\"\n" +
+                "from PUBLIC.CUSTOMER \"g0\"\n" +
+                "  left outer join lateral (\n" +
+                "    select json_arrayagg(json_object(key 'ACCOUNT_ID' value \"g1\".\"ACCOUNT_ID\")) \"accounts\"\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from PUBLIC.ACCOUNT\n" +
+                "      where \"g0\".\"SSN\" = \"SSN\"\n" +
+                "      order by\n" +
+                "        \"DATEOPENED\" asc nulls first,\n" +
+                "        \"ACCOUNT_ID\"\n" +
+                "    ) \"g1\"\n" +
+                "  ) \"g1j\"\n" +
+                "    on true\n" +
+                "order by\n" +
+                "  \"g0\".\"LASTNAME\" desc,\n" +
+                "  \"g0\".\"FIRSTNAME\" asc nulls last,\n" +
+                "  \"g0\".\"SSN\"";
+        assertNestedSQL(query, expected, lateral);
+    }
+
+    @Test
+    public void testOrderByUnknownColumn() throws Exception {
+        String query = "{\n" +
+                "  customers (orderBy: {field: \"accounts\"}) {\n" +
+                "    SSN\n" +
+                "  }\n" +
+                "}";
+        try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
+            ctx.setDialect("DEFAULT");
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx).build());
+            Assertions.assertEquals(1, executionResult.getErrors().size());
+            Assertions.assertTrue(executionResult.getErrors().get(0).getMessage()
+                    .contains("orderBy field accounts is not a column of CUSTOMER"));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBatchedRelations() throws Exception {
+        String query = "{\n" +
+                "  customers {\n" +
+                "    SSN\n" +
+                "    accounts {\n" +
+                "      ACCOUNT_ID\n" +
+                "      SSN\n" +
+                "      customer { SSN }\n" +
+                "      holdinges { ACCOUNT_ID SHARES_COUNT }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}";
+        try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
+            ctx.setDialect("DEFAULT");
+            ctx.setBindParameters(true);
+            ctx.setRelationStrategy(RelationStrategy.BATCH);
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx)
+                            .dataLoaderRegistry(ctx.getDataLoaderRegistry()).build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+            Assertions.assertEquals("select \"g0\".\"SSN\" \"SSN\" from PUBLIC.CUSTOMER \"g0\" order by \"g0\".\"SSN\"",
+                    ctx.getSQL());
+
+            // every level is matched back to its own parent
+            Map<String, List<Map<String, Object>>> data = executionResult.getData();
+            int accounts = 0;
+            int holdings = 0;
+            for (Map<String, Object> customer : data.get("customers")) {
+                for (Map<String, Object> account : (List<Map<String, Object>>) customer.get("accounts")) {
+                    Assertions.assertEquals(customer.get("SSN"), account.get("SSN"));
+                    Assertions.assertEquals(customer.get("SSN"), ((Map<String, Object>) account.get("customer")).get("SSN"));
+                    for (Map<String, Object> holding : (List<Map<String, Object>>) account.get("holdinges")) {
+                        Assertions.assertEquals(account.get("ACCOUNT_ID"), holding.get("ACCOUNT_ID").toString());
+                        holdings++;
+                    }
+                    accounts++;
+                }
+            }
+            Assertions.assertTrue(accounts > 0);
+            Assertions.assertTrue(holdings > 0);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBatchedRelationPage() throws Exception {
+        String query = "{\n" +
+                "  customers {\n" +
+                "    FIRSTNAME\n" +
+                "    accounts (page: {limit: 1}) {\n" +
+                "      ACCOUNT_ID\n" +
+                "    }\n" +
+                "  }\n" +
+                "}";
+        try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
+            ctx.setDialect("DEFAULT");
+            ctx.setRelationStrategy("CUSTOMER.accounts", RelationStrategy.BATCH);
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx)
+                            .dataLoaderRegistry(ctx.getDataLoaderRegistry()).build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+            // the key to match the accounts is selected, though it was not asked for
+            String expected = "select\n" +
+                    "  \"g0\".\"FIRSTNAME\" \"FIRSTNAME\",\n" +
+                    "  \"g0\".\"SSN\" \"SSN\"\n" +
+                    "from PUBLIC.CUSTOMER \"g0\"\n" +
+                    "order by \"g0\".\"SSN\"";
+            Assertions.assertEquals(expected, ctx.getSQL());
+
+            // the limit is per customer, not for the whole batch
+            Map<String, List<Map<String, Object>>> data = executionResult.getData();
+            int withAccounts = 0;
+            for (Map<String, Object> customer : data.get("customers")) {
+                Assertions.assertFalse(customer.containsKey("SSN"));
+                int size = ((List<Object>) customer.get("accounts")).size();
+                Assertions.assertTrue(size <= 1);
+                withAccounts += size;
+            }
+            Assertions.assertTrue(withAccounts > 1);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBatchedRelationAliasedKey() throws Exception {
+        String query = "{\n" +
+                "  customers {\n" +
+                "    id: SSN\n" +
+                "    accounts {\n" +
+                "      id: ACCOUNT_ID\n" +
+                "      holdinges { ACCOUNT_ID SHARES_COUNT }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}";
+        try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
+            ctx.setDialect("DEFAULT");
+            ctx.setBindParameters(true);
+            ctx.setRelationStrategy(RelationStrategy.BATCH);
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx)
+                            .dataLoaderRegistry(ctx.getDataLoaderRegistry()).build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+
+            // the accounts are matched to their holdings by the key they were asked for under an alias
+            Map<String, List<Map<String, Object>>> data = executionResult.getData();
+            int holdings = 0;
+            for (Map<String, Object> customer : data.get("customers")) {
+                for (Map<String, Object> account : (List<Map<String, Object>>) customer.get("accounts")) {
+                    Assertions.assertEquals(2, account.size(), account.toString());
+                    for (Map<String, Object> holding : (List<Map<String, Object>>) account.get("holdinges")) {
+                        Assertions.assertEquals(account.get("id").toString(), holding.get("ACCOUNT_ID").toString());
+                        holdings++;
+                    }
+                }
+            }
+            Assertions.assertTrue(holdings > 0);
+        }
+    }
+
+    @Test
+    public void testBatchedRelationPageInSQL() throws Exception {
+        String query = "{\n" +
+                "  customers {\n" +
+                "    SSN\n" +
+                "    accounts (page: {limit: 2, offset: 1}) {\n" +
+                "      ACCOUNT_ID\n" +
+                "    }\n" +
+                "  }\n" +
+                "}";
+        List<String> statements = new ArrayList<>();
+        Connection connection = this.datasource.getConnection();
+        Connection recording = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("prepareStatement")) {
+                        statements.add((String) args[0]);
+                    }
+                    return invoke(method, connection, args);
+                });
+        try (SQLContext ctx = new SQLContext(recording)) {
+            ctx.setDialect("POSTGRES");
+            ctx.setBindParameters(true);
+            ctx.setRelationStrategy(RelationStrategy.BATCH);
+            GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx)
+                            .dataLoaderRegistry(ctx.getDataLoaderRegistry()).build());
+        }
+        // the page of each customer is read, rather than all their accounts, H2 here has no window functions
+        Assertions.assertEquals(2, statements.size(), statements.toString());
+        String expected = "select \"g0p\".\"ACCOUNT_ID\", \"g0p\".\"SSN\" from (select \"g0\".\"ACCOUNT_ID\" "
+                + "as \"ACCOUNT_ID\", \"g0\".\"SSN\" as \"SSN\", row_number() over (partition by \"g0\".\"SSN\" "
+                + "order by \"g0\".\"ACCOUNT_ID\") as \"#rn\" from PUBLIC.ACCOUNT as \"g0\" where \"g0\".\"SSN\" in (";
+        Assertions.assertTrue(statements.get(1).startsWith(expected), statements.get(1));
+        Assertions.assertTrue(statements.get(1).endsWith(") as \"g0p\" where (\"g0p\".\"#rn\" > ? "
+                + "and \"g0p\".\"#rn\" <= ?) order by \"g0p\".\"#rn\""), statements.get(1));
+    }
+
+    @Test
+    public void testNestedToOneQuery() throws Exception {
+        String query = "{\n" +
+          "  accounts {\n" +
+          "    ACCOUNT_ID\n" +
+          "    customer {\n" +
+          "      FIRSTNAME\n" +
+          "      LASTNAME\n" +
+          "    }\n" +
+          "  }\n" +
+          "}";
+        String expected = "select\n" +
+                "  \"g0\".\"ACCOUNT_ID\" \"ACCOUNT_ID\",\n" +
+                "  (\n" +
+                "    select json_arrayagg(json_object(\n" +
+                "      key 'FIRSTNAME' value \"g1\".\"FIRSTNAME\",\n" +
+                "      key 'LASTNAME' value \"g1\".\"LASTNAME\"\n" +
+                "    ))\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from PUBLIC.CUSTOMER\n" +
+                "      where \"g0\".\"SSN\" = \"SSN\"\n" +
+                "      order by \"SSN\"\n" +
+                "    ) \"g1\"\n" +
+                "  ) \"customer\"\n" +
+                "from PUBLIC.ACCOUNT \"g0\"\n" +
+                "order by \"g0\".\"ACCOUNT_ID\"";
+        String lateral = "select\n" +
+                "  \"g0\".\"ACCOUNT_ID\" \"ACCOUNT_ID\",\n" +
+                "  \"g1j\".\"customer\" \"customer\"\n" +
+                "from PUBLIC.ACCOUNT \"g0\"\n" +
+                "  left outer join lateral (\n" +
+                "    select json_arrayagg(json_object(\n" +
+                "      key 'FIRSTNAME' value \"g1\".\"FIRSTNAME\",\n" +
+                "      key 'LASTNAME' value \"g1\".\"LASTNAME\"\n" +
+                "    )) \"customer\"\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from PUBLIC.CUSTOMER\n" +
+                "      where \"g0\".\"SSN\" = \"SSN\"\n" +
+                "      order by \"SSN\"\n" +
+                "    ) \"g1\"\n" +
+                "  ) \"g1j\"\n" +
+                "    on true\n" +
+                "order by \"g0\".\"ACCOUNT_ID\"";
+        assertNestedSQL(query, expected, lateral);
+    }
+
+    @Test
+    public void testNestedFilterOrderByQuery() throws Exception {
+        String query = "{\n" +
+          "  customers {\n" +
+          "    SSN\n" +
+          "    accounts (filter: {STATUS: {eq: \"Personal\"}}, orderBy: {field: \"DATEOPENED\", order: DESC}) {\n" +
+          "      ACCOUNT_ID\n" +
+          "    }\n" +
+          "  }\n" +
+          "}";
+        String expected = "select\n" +
+                "  \"g0\".\"SSN\" \"SSN\",\n" +
+                "  (\n" +
+                "    select json_arrayagg(json_object(key 'ACCOUNT_ID' value \"g1\".\"ACCOUNT_ID\"))\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from PUBLIC.ACCOUNT\n" +
+                "      where (\n" +
+                "        \"g0\".\"SSN\" = \"SSN\"\n" +
+                "        and \"g1\".\"STATUS\" = 'Personal'\n" +
+                "      )\n" +
+                "      order by\n" +
+                "        \"DATEOPENED\" desc,\n" +
+                "        \"ACCOUNT_ID\"\n" +
+                "    ) \"g1\"\n" +
+                "  ) \"accounts\"\n" +
+                "from PUBLIC.CUSTOMER \"g0\"\n" +
+                "order by \"g0\".\"SSN\"";
+        String lateral = "select\n" +
+                "  \"g0\".\"SSN\" \"SSN\",\n" +
+                "  \"g1j\".\"accounts\" \"accounts\"\n" +
+                "from PUBLIC.CUSTOMER \"g0\"\n" +
+                "  left outer join lateral (\n" +
+                "    select json_arrayagg(json_object(key 'ACCOUNT_ID' value \"g1\".\"ACCOUNT_ID\")) \"accounts\"\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from PUBLIC.ACCOUNT\n" +
+                "      where (\n" +
+                "        \"g0\".\"SSN\" = \"SSN\"\n" +
+                "        and \"g1\".\"STATUS\" = 'Personal'\n" +
+                "      )\n" +
+                "      order by\n" +
+                "        \"DATEOPENED\" desc,\n" +
+                "        \"ACCOUNT_ID\"\n" +
+                "    ) \"g1\"\n" +
+                "  ) \"g1j\"\n" +
+                "    on true\n" +
+                "order by \"g0\".\"SSN\"";
+        assertNestedSQL(query, expected, lateral);
+    }
+
+    @Test
+    public void testLateralNestedQuery() throws Exception {
+        String query = "{\n" +
+          "  customers {\n" +
+          "    FIRSTNAME\n" +
+          "    accounts (page: {limit: 2}) {\n" +
+          "      id: ACCOUNT_ID\n" +
+          "      holdinges (page: {limit: 5}) {\n" +
+          "        id: PRODUCT_ID,\n" +
+          "        SHARES_COUNT\n" +
+          "      }\n" +
+          "    }\n" +
+          "  }\n" +
+          "}";
+        String result = executeSQL(query, RelationStrategy.LATERAL);
+        // same aggregation as the sub query, but joined to the rows of each level
+        String expected = "select\n" +
+                "  \"g0\".\"FIRSTNAME\" \"FIRSTNAME\",\n" +
+                "  \"g1j\".\"accounts\" \"accounts\"\n" +
+                "from PUBLIC.CUSTOMER \"g0\"\n" +
+                "  left outer join lateral (\n" +
+                "    select json_arrayagg(json_object(\n" +
+                "      key 'id' value \"g1\".\"ACCOUNT_ID\",\n" +
+                "      key 'holdinges' value \"g2j\".\"holdinges\"\n" +
+                "    )) \"accounts\"\n" +
+                "    from (\n" +
+                "      select *\n" +
+                "      from PUBLIC.ACCOUNT\n" +
+                "      where \"g0\".\"SSN\" = \"SSN\"\n" +
+                "      order by \"ACCOUNT_ID\"\n" +
+                "      limit 2\n" +
+                "    ) \"g1\"\n" +
+                "      left outer join lateral (\n" +
+                "        select json_arrayagg(json_object(\n" +
+                "          key 'id' value \"g2\".\"PRODUCT_ID\",\n" +
+                "          key 'SHARES_COUNT' value \"g2\".\"SHARES_COUNT\"\n" +
+                "        )) \"holdinges\"\n" +
+                "        from (\n" +
+                "          select *\n" +
+                "          from PUBLIC.HOLDINGS\n" +
+                "          where \"g1\".\"ACCOUNT_ID\" = \"ACCOUNT_ID\"\n" +
+                "          order by \"TRANSACTION_ID\"\n" +
+                "          limit 5\n" +
+                "        ) \"g2\"\n" +
+                "      ) \"g2j\"\n" +
+                "        on true\n" +
+                "  ) \"g1j\"\n" +
+                "    on true\n" +
+                "order by \"g0\".\"SSN\"";
+        Assertions.assertEquals(expected, result);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testKeyOnlyRelation() throws Exception {
+        String query = "{\n" +
+                "  accounts {\n" +
+                "    __typename\n" +
+                "    ACCOUNT_ID\n" +
+                "    SSN\n" +
+                "    customer { __typename, id: SSN }\n" +
+                "  }\n" +
+                "}";
+        try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
+            ctx.setDialect("DEFAULT");
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx).build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+            // the customer key is the SSN of the account, no need for a sub query
+            String expected = "select\n" +
+                    "  \"g0\".\"ACCOUNT_ID\" \"ACCOUNT_ID\",\n" +
+                    "  \"g0\".\"SSN\" \"SSN\"\n" +
+                    "from PUBLIC.ACCOUNT \"g0\"\n" +
+                    "order by \"g0\".\"ACCOUNT_ID\"";
+            Assertions.assertEquals(expected, ctx.getSQL());
+
+            Map<String, List<Map<String, Object>>> data = executionResult.getData();
+            Assertions.assertFalse(data.get("accounts").isEmpty());
+            for (Map<String, Object> account : data.get("accounts")) {
+                Assertions.assertEquals("ACCOUNT", account.get("__typename"));
+                Map<String, Object> customer = (Map<String, Object>) account.get("customer");
+                Assertions.assertEquals("CUSTOMER", customer.get("__typename"));
+                Assertions.assertEquals(account.get("SSN"), customer.get("id"));
+            }
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testNestedKeyOnlyRelation() throws Exception {
+        String query = "{\n" +
+                "  customers {\n" +
+                "    SSN\n" +
+                "    accounts {\n" +
+                "      ssn: SSN\n" +
+                "      customer { id: SSN }\n" +
+                "    }\n" +
+                "  }\n" +
+                "}";
+        // the account key is in the JSON of the accounts under its alias, and its column name
+        String expected = "select\n" +
+                "  \"g0\".\"SSN\" \"SSN\",\n" +
+                "  (\n" +
+                "    select json_arrayagg(json_object(\n" +
+                "      key 'ssn' value \"g1\".\"SSN\",\n" +
+                "      key '#SSN' value \"g1\".\"SSN\"\n" +
+                "    ))\n";
+        String result = executeSQL(query);
+        Assertions.assertTrue(result.startsWith(expected), result);
+
+        // the same rows read by a batch, H2 can not run the JSON above
+        try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
+            ctx.setDialect("DEFAULT");
+            ctx.setRelationStrategy("CUSTOMER.accounts", RelationStrategy.BATCH);
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx)
+                            .dataLoaderRegistry(ctx.getDataLoaderRegistry()).build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+
+            Map<String, List<Map<String, Object>>> data = executionResult.getData();
+            int accounts = 0;
+            for (Map<String, Object> customer : data.get("customers")) {
+                for (Map<String, Object> account : (List<Map<String, Object>>) customer.get("accounts")) {
+                    Assertions.assertEquals(customer.get("SSN"), account.get("ssn"));
+                    Assertions.assertEquals(customer.get("SSN"), ((Map<String, Object>) account.get("customer")).get("id"));
+                    accounts++;
+                }
+            }
+            Assertions.assertTrue(accounts > 0);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testMetrics() throws Exception {
+        String query = "{\n" +
+                "  customers {\n" +
+                "    SSN\n" +
+                "    accounts {\n" +
+                "      ACCOUNT_ID\n" +
+                "    }\n" +
+                "  }\n" +
+                "}";
+        Map<String, Long> recorded = new ConcurrentHashMap<>();
+        SQLMetrics metrics = new SQLMetrics() {
+            @Override
+            public void buildTime(String rootField, String entity, long nanos) {
+                recorded.merge("build:" + rootField + ":" + entity, 1L, Long::sum);
+            }
+
+            @Override
+            public void buildTime(String rootField, String entity, boolean cached, long nanos) {
+                buildTime(rootField, entity, nanos);
+                recorded.merge((cached ? "cached:" : "built:") + rootField + ":" + entity, 1L, Long::sum);
+            }
+
+            @Override
+            public void executeTime(String rootField, String entity, long nanos) {
+                recorded.merge("execute:" + rootField + ":" + entity, 1L, Long::sum);
+            }
+
+            @Override
+            public void rowsFetched(String rootField, String entity, long rows) {
+                recorded.merge("rows:" + rootField + ":" + entity, rows, Long::sum);
+            }
+
+            @Override
+            public void connectionAcquireTime(long nanos) {
+                recorded.merge("acquire", 1L, Long::sum);
+            }
+        };
+        try (SQLContext ctx = new SQLContext(this.datasource)) {
+            ctx.setDialect("DEFAULT");
+            ctx.setBindParameters(true);
+            ctx.setRelationStrategy(RelationStrategy.BATCH);
+            ctx.setMetrics(metrics);
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx)
+                            .dataLoaderRegistry(ctx.getDataLoaderRegistry()).build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+
+            Map<String, List<Map<String, Object>>> data = executionResult.getData();
+            long accounts = 0;
+            for (Map<String, Object> customer : data.get("customers")) {
+                accounts += ((List<Object>) customer.get("accounts")).size();
+            }
+            Assertions.assertEquals(1L, recorded.get("build:customers:CUSTOMER"));
+            Assertions.assertEquals(1L, recorded.get("execute:customers:CUSTOMER"));
+            Assertions.assertEquals((long) data.get("customers").size(), recorded.get("rows:customers:CUSTOMER"));
+            // the batched relation is measured under the root field it is nested in
+            Assertions.assertEquals(1L, recorded.get("build:customers:ACCOUNT"));
+            Assertions.assertEquals(1L, recorded.get("execute:customers:ACCOUNT"));
+            Assertions.assertEquals(accounts, recorded.get("rows:customers:ACCOUNT"));
+            Assertions.assertTrue(recorded.get("acquire") >= 1);
+        }
+
+        // the plan of the same query comes from the cache, the time to get it is still recorded
+        try (SQLContext ctx = new SQLContext(this.datasource)) {
+            ctx.setDialect("DEFAULT");
+            ctx.setBindParameters(true);
+            ctx.setRelationStrategy(RelationStrategy.BATCH);
+            ctx.setMetrics(metrics);
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx)
+                            .dataLoaderRegistry(ctx.getDataLoaderRegistry()).build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+            Assertions.assertEquals(2L, recorded.get("build:customers:CUSTOMER"));
+            Assertions.assertTrue(recorded.get("cached:customers:CUSTOMER") >= 1);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSlowQueryLog() throws Exception {
+        // every new connection runs the init script again, have the two connections of the test open first
+        try (Connection c1 = this.datasource.getConnection(); Connection c2 = this.datasource.getConnection()) {
+            Assertions.assertNotSame(c1, c2);
+        }
+        try (SlowQueryLog log = new SlowQueryLog(Duration.ZERO, 2, this.datasource, "H2")) {
+            for (String name : Arrays.asList("First", "Second", "Third")) {
+                String query = "query " + name + " {\n" +
+                        "  customers (filter: {LASTNAME: {ne: \"" + name + "\"}}) {\n" +
+                        "    SSN\n" +
+                        "  }\n" +
+                        "}";
+                try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
+                    ctx.setDialect("DEFAULT");
+                    ctx.setBindParameters(true);
+                    ctx.setSlowQueryLog(log);
+                    ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                            .execute(ExecutionInput.newExecutionInput().query(query).context(ctx).build());
+                    Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+                    Map<String, List<Object>> data = executionResult.getData();
+                    Assertions.assertEquals(data.get("customers").size(), log.getEntries().get(0).getRows());
+                }
+            }
+
+            // only the most recent are kept, newest first
+            List<SlowQueryLog.Entry> entries = log.getEntries();
+            Assertions.assertEquals(2, entries.size());
+            Assertions.assertEquals("Third", entries.get(0).getOperationName());
+            Assertions.assertEquals("Second", entries.get(1).getOperationName());
+            Assertions.assertEquals("customers", entries.get(0).getRootField());
+            Assertions.assertEquals(Arrays.asList("Third"), entries.get(0).getBindValues());
+            Assertions.assertTrue(entries.get(0).getSql().contains("?"));
+
+            // the plan is explained in the background
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (entries.get(0).getPlan() == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assertions.assertNotNull(entries.get(0).getPlan());
+            Assertions.assertTrue(entries.get(0).getPlan().contains("CUSTOMER"), entries.get(0).getPlan());
+        }
+    }
+
+    @Test
+    public void testDefaultRelationLimit() throws Exception {
+        String query = "{\n" +
+          "  customers {\n" +
+          "    SSN\n" +
+          "    accounts {\n" +
+          "      id: ACCOUNT_ID\n" +
+          "    }\n" +
+          "  }\n" +
+          "}";
+        try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
+            ctx.setDialect("DEFAULT");
+            ctx.setDefaultRelationLimit(3);
+            GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx).build());
+            String expected = "select\n" +
+                    "  \"g0\".\"SSN\" \"SSN\",\n" +
+                    "  (\n" +
+                    "    select json_arrayagg(json_object(key 'id' value \"g1\".\"ACCOUNT_ID\"))\n" +
+                    "    from (\n" +
+                    "      select *\n" +
+                    "      from PUBLIC.ACCOUNT\n" +
+                    "      where \"g0\".\"SSN\" = \"SSN\"\n" +
+                    "      order by \"ACCOUNT_ID\"\n" +
+                    "      limit 3\n" +
+                    "    ) \"g1\"\n" +
+                    "  ) \"accounts\"\n" +
+                    "from PUBLIC.CUSTOMER \"g0\"\n" +
+                    "order by \"g0\".\"SSN\"";
+            Assertions.assertEquals(expected, ctx.getSQL());
+        }
+
+        // batched relations are paged per parent
+        try (SQLContext ctx = new SQLContext(this.datasource)) {
+            ctx.setDialect("DEFAULT");
+            ctx.setBindParameters(true);
+            ctx.setRelationStrategy(RelationStrategy.BATCH);
+            ctx.setDefaultRelationLimit(1);
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx)
+                            .dataLoaderRegistry(ctx.getDataLoaderRegistry()).build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+            Map<String, List<Map<String, List<Object>>>> data = executionResult.getData();
+            Assertions.assertFalse(data.get("customers").isEmpty());
+            for (Map<String, List<Object>> customer : data.get("customers")) {
+                Assertions.assertTrue(customer.get("accounts").size() <= 1, customer.toString());
+            }
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new SQLContext(this.datasource).setDefaultRelationLimit(0));
+    }
+
+    @Test
+    public void testQueryCost() throws Exception {
+        String query = "query Cost($limit: Int) {\n" +
+          "  customers (page: {limit: $limit}) {\n" +
+          "    SSN\n" +
+          "    accounts {\n" +
+          "      ACCOUNT_ID\n" +
+          "      holdinges { PRODUCT_ID }\n" +
+          "    }\n" +
+          "  }\n" +
+          "}";
+        // each customer costs itself, 5 accounts and 5 holdings of each account: 1 + 5 * (1 + 5)
+        GraphQL graphQL = GraphQL.newGraphQL(this.graphQLSchema)
+                .instrumentation(new QueryCostInstrumentation(300, 0, 100, 5)).build();
+        try (SQLContext ctx = new SQLContext(this.datasource)) {
+            ctx.setDialect("DEFAULT");
+            ctx.setBindParameters(true);
+            ctx.setRelationStrategy(RelationStrategy.BATCH);
+            ctx.setDefaultRelationLimit(5);
+            ExecutionResult executionResult = graphQL.execute(ExecutionInput.newExecutionInput()
+                    .query(query.replace("($limit: Int)", "").replace("$limit", "9")).context(ctx)
+                    .dataLoaderRegistry(ctx.getDataLoaderRegistry()).build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+        }
+
+        // the limit of the variables is over the budget
+        try (SQLContext ctx = new SQLContext(this.datasource)) {
+            ctx.setDialect("DEFAULT");
+            ExecutionResult executionResult = graphQL.execute(ExecutionInput.newExecutionInput().query(query)
+                    .variables(Collections.singletonMap("limit", 10)).context(ctx).build());
+            Assertions.assertEquals(1, executionResult.getErrors().size());
+            Assertions.assertTrue(executionResult.getErrors().get(0).getMessage().startsWith(
+                    "Query cost 310 exceeds the maximum of 300"), executionResult.getErrors().toString());
+            Assertions.assertNull(ctx.getSQL());
+        }
+
+        // the fields of the holdings are too deep
+        graphQL = GraphQL.newGraphQL(this.graphQLSchema)
+                .instrumentation(new QueryCostInstrumentation(0, 3, 100, null)).build();
+        try (SQLContext ctx = new SQLContext(this.datasource)) {
+            ctx.setDialect("DEFAULT");
+            ExecutionResult executionResult = graphQL.execute(ExecutionInput.newExecutionInput().query(query)
+                    .context(ctx).build());
+            Assertions.assertEquals(1, executionResult.getErrors().size());
+            Assertions.assertEquals("Query depth 4 exceeds the maximum of 3",
+                    executionResult.getErrors().get(0).getMessage());
+        }
+    }
+
+    @Test
+    public void testQueryTimeout() throws Exception {
+        String query = "{\n" +
+                "  customers { SSN }\n" +
+                "  accounts { ACCOUNT_ID }\n" +
+                "}";
+        try (SQLContext ctx = new SQLContext(this.datasource)) {
+            ctx.setQueryTimeout(Duration.ofMillis(2500));
+            ctx.setQueryTimeout("ACCOUNT", Duration.ofSeconds(1));
+            Statement customers = ctx.register(ctx.getConnection().createStatement());
+            Statement accounts = ctx.register(ctx.getConnection().createStatement());
+            // JDBC timeouts are in seconds, rounded up. H2 keeps them on the connection, check them one by one
+            ctx.startStatement(customers, "CUSTOMER");
+            Assertions.assertEquals(3, customers.getQueryTimeout());
+            ctx.startStatement(accounts, "ACCOUNT");
+            Assertions.assertEquals(1, accounts.getQueryTimeout());
+
+            // the operation timeout caps the statements
+            ctx.setOperationTimeout(Duration.ofMillis(1500));
+            Statement later = ctx.register(ctx.getConnection().createStatement());
+            ctx.startStatement(later, "CUSTOMER");
+            Assertions.assertEquals(2, later.getQueryTimeout());
+        }
+
+        // the statements of an operation past its timeout do not run at all
+        try (SQLContext ctx = new SQLContext(this.datasource)) {
+            ctx.setDialect("DEFAULT");
+            ctx.setBindParameters(true);
+            ctx.setOperationTimeout(Duration.ZERO);
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query(query).context(ctx).build());
+            Assertions.assertEquals(2, executionResult.getErrors().size());
+            Assertions.assertTrue(executionResult.getErrors().get(0).getMessage()
+                    .contains("The operation took longer than its timeout"), executionResult.getErrors().toString());
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        try (SQLContext ctx = new SQLContext(this.datasource)) {
+            ctx.setDialect("DEFAULT");
+            ctx.setBindParameters(true);
+            Statement stmt = ctx.register(ctx.getConnection().createStatement());
+            ctx.startStatement(stmt, null);
+            CompletableFuture<Object> running = CompletableFuture.supplyAsync(() -> {
+                try (ResultSet rs = stmt.executeQuery("select sum(x) from system_range(1, 10000000000)")) {
+                    return rs.next();
+                } catch (SQLException e) {
+                    return e;
+                }
+            });
+            Thread.sleep(200);
+            ctx.cancel();
+            Object result = running.get(10, TimeUnit.SECONDS);
+            Assertions.assertTrue(result instanceof SQLException, String.valueOf(result));
+
+            // the rest of the request fails without running
+            ExecutionResult executionResult = GraphQL.newGraphQL(this.graphQLSchema).build()
+                    .execute(ExecutionInput.newExecutionInput().query("{ customers { SSN } }").context(ctx).build());
+            Assertions.assertEquals(1, executionResult.getErrors().size());
+            Assertions.assertTrue(executionResult.getErrors().get(0).getMessage()
+                    .contains("The request was cancelled"), executionResult.getErrors().toString());
+        }
+    }
+
+    private SQLContext executeWithBindParameters(String query) throws Exception {
+        ExecutionInput.Builder executionInput = ExecutionInput.newExecutionInput()
+                .query(query);
+
+        try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
+            executionInput.context(ctx);
+            ctx.setDialect("DEFAULT");
+            ctx.setBindParameters(true);
+
+            GraphQL graphQL = GraphQL
+                    .newGraphQL(this.graphQLSchema)
+                    .build();
+
+            ExecutionResult executionResult = graphQL.execute(executionInput.build());
+            Assertions.assertTrue(executionResult.getErrors().isEmpty(), executionResult.getErrors().toString());
+            return ctx;
+        }
+    }
+
+    /**
+     * Checks the SQL of a query with nested relations, read by sub queries and by lateral joins
+     */
+    private void assertNestedSQL(String query, String subquery, String lateral) throws Exception {
+        Assertions.assertEquals(subquery, executeSQL(query, RelationStrategy.SUBQUERY));
+        Assertions.assertEquals(lateral, executeSQL(query, RelationStrategy.LATERAL));
+    }
+
+    @Test
+    public String executeSQL(String query) throws Exception {
+        return executeSQL(query, RelationStrategy.SUBQUERY);
+    }
+
+    private String executeSQL(String query, RelationStrategy strategy) throws Exception {
         String sql;
         ExecutionInput.Builder executionInput = ExecutionInput.newExecutionInput()
                 .query(query);
@@ -1292,6 +2601,7 @@ class SQLDataFetcherTest {
         try (SQLContext ctx = new SQLContext(this.datasource.getConnection())) {
             executionInput.context(ctx);
             ctx.setDialect("DEFAULT");
+            ctx.setRelationStrategy(strategy);
 
             GraphQL graphQL = GraphQL
                     .newGraphQL(this.graphQLSchema)
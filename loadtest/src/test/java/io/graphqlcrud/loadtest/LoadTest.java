@@ -0,0 +1,324 @@
+/*
+ * Copyright 2012-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.graphqlcrud.loadtest;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.agroal.api.AgroalDataSource;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+
+/**
+ * Replays a mix of operations against the /graphql endpoint of the app at a fixed concurrency, and
+ * writes the throughput and the latency percentiles of each operation to the report file. The size of
+ * the data set, the concurrency, the durations and the mix are "loadtest.*" properties, that can be
+ * overridden with -D on the command line.
+ */
+@QuarkusTestResource(H2DatabaseTestResource.class)
+@QuarkusTest
+public class LoadTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // microseconds, anything slower than a minute is recorded as a minute
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toMicros(1);
+
+    enum Operation {
+        LIST("list"),
+        BY_ID("by-id"),
+        NESTED("nested"),
+        MUTATION("mutation");
+
+        private final String key;
+
+        Operation(String key) {
+            this.key = key;
+        }
+
+        static Operation of(String key) {
+            for (Operation op : values()) {
+                if (op.key.equals(key)) {
+                    return op;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation " + key + " in loadtest.mix");
+        }
+    }
+
+    @Inject
+    AgroalDataSource datasource;
+
+    @TestHTTPResource("/graphql")
+    URL url;
+
+    @ConfigProperty(name = "loadtest.customers")
+    int customers;
+
+    @ConfigProperty(name = "loadtest.accounts-per-customer")
+    int accountsPerCustomer;
+
+    @ConfigProperty(name = "loadtest.holdings-per-account")
+    int holdingsPerAccount;
+
+    @ConfigProperty(name = "loadtest.concurrency")
+    int concurrency;
+
+    @ConfigProperty(name = "loadtest.warmup")
+    Duration warmup;
+
+    @ConfigProperty(name = "loadtest.duration")
+    Duration duration;
+
+    @ConfigProperty(name = "loadtest.mix")
+    List<String> mix;
+
+    @ConfigProperty(name = "loadtest.report")
+    String report;
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private Operation[] weighted;
+
+    @Test
+    public void testLoad() throws Exception {
+        seed();
+        this.weighted = weights();
+
+        run(this.warmup, new EnumMap<>(Operation.class), new AtomicLong());
+
+        Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+        AtomicLong errors = new AtomicLong();
+        long start = System.nanoTime();
+        run(this.duration, histograms, errors);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        writeReport(histograms, errors.get(), seconds);
+        Assertions.assertEquals(0, errors.get(), "requests failed, see " + this.report);
+        Assertions.assertFalse(histograms.isEmpty());
+    }
+
+    /**
+     * Synthetic customers, with their accounts and holdings, next to the sample rows of the migration
+     */
+    private void seed() throws Exception {
+        try (Connection c = this.datasource.getConnection()) {
+            List<Integer> products = new ArrayList<>();
+            try (Statement stmt = c.createStatement(); ResultSet rs = stmt.executeQuery("SELECT ID FROM PRODUCT")) {
+                while (rs.next()) {
+                    products.add(rs.getInt(1));
+                }
+            }
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            try (PreparedStatement customer = c.prepareStatement(
+                    "INSERT INTO CUSTOMER (SSN, FIRSTNAME, LASTNAME, PHONE) VALUES (?, ?, ?, ?)");
+                    PreparedStatement account = c.prepareStatement(
+                    "INSERT INTO ACCOUNT (ACCOUNT_ID, SSN, STATUS, TYPE, DATEOPENED) VALUES (?, ?, ?, ?, ?)");
+                    PreparedStatement holding = c.prepareStatement(
+                    "INSERT INTO HOLDINGS (ACCOUNT_ID, PRODUCT_ID, PURCHASE_DATE, SHARES_COUNT) VALUES (?, ?, ?, ?)")) {
+                for (int i = 0; i < this.customers; i++) {
+                    String ssn = ssn(i);
+                    customer.setString(1, ssn);
+                    customer.setString(2, "First" + i);
+                    customer.setString(3, "Last" + (i % 100));
+                    customer.setString(4, String.format("(555)%03d-%04d", i % 1000, i % 10000));
+                    customer.addBatch();
+                    for (int j = 0; j < this.accountsPerCustomer; j++) {
+                        int accountId = accountId(i, j);
+                        account.setInt(1, accountId);
+                        account.setString(2, ssn);
+                        account.setString(3, j % 4 == 0 ? "Closed" : "Active");
+                        account.setString(4, j % 2 == 0 ? "Personal" : "Business");
+                        account.setTimestamp(5, now);
+                        account.addBatch();
+                        for (int k = 0; k < this.holdingsPerAccount && !products.isEmpty(); k++) {
+                            holding.setInt(1, accountId);
+                            holding.setInt(2, products.get((i + j + k) % products.size()));
+                            holding.setTimestamp(3, now);
+                            holding.setInt(4, 10 * (k + 1));
+                            holding.addBatch();
+                        }
+                    }
+                    if (i % 500 == 499) {
+                        flush(customer, account, holding);
+                    }
+                }
+                flush(customer, account, holding);
+            }
+        }
+    }
+
+    private static void flush(PreparedStatement... statements) throws Exception {
+        for (PreparedStatement stmt : statements) {
+            stmt.executeBatch();
+        }
+    }
+
+    private static String ssn(int i) {
+        return String.format("L%09d", i);
+    }
+
+    private int accountId(int customer, int account) {
+        return 500_000_000 + customer * this.accountsPerCustomer + account;
+    }
+
+    private Operation[] weights() {
+        List<Operation> ops = new ArrayList<>();
+        for (String entry : this.mix) {
+            String[] parts = entry.trim().split(":");
+            Operation op = Operation.of(parts[0].trim());
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            for (int i = 0; i < weight; i++) {
+                ops.add(op);
+            }
+        }
+        if (ops.isEmpty()) {
+            throw new IllegalArgumentException("loadtest.mix has no operations");
+        }
+        return ops.toArray(new Operation[0]);
+    }
+
+    /**
+     * Closed loop clients, each one sends a request as soon as its previous one is answered
+     */
+    private void run(Duration length, Map<Operation, Histogram> histograms, AtomicLong errors) throws Exception {
+        for (Operation op : Operation.values()) {
+            histograms.put(op, new ConcurrentHistogram(HIGHEST_LATENCY, 3));
+        }
+        long deadline = System.nanoTime() + length.toNanos();
+        ExecutorService executor = Executors.newFixedThreadPool(this.concurrency);
+        try {
+            List<Future<?>> clients = new ArrayList<>();
+            for (int i = 0; i < this.concurrency; i++) {
+                clients.add(executor.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        Operation op = this.weighted[ThreadLocalRandom.current().nextInt(this.weighted.length)];
+                        long start = System.nanoTime();
+                        boolean ok = send(query(op));
+                        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+                        histograms.get(op).recordValue(Math.min(micros, HIGHEST_LATENCY));
+                        if (!ok) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> client : clients) {
+                client.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        histograms.values().removeIf(h -> h.getTotalCount() == 0);
+    }
+
+    private String query(Operation op) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String ssn = ssn(random.nextInt(this.customers));
+        int offset = random.nextInt(Math.max(1, this.customers - 50));
+        switch (op) {
+        case LIST:
+            return "{ customers (page: {limit: 50, offset: " + offset + "}) { SSN FIRSTNAME LASTNAME PHONE } }";
+        case BY_ID:
+            return "{ customer (SSN: \"" + ssn + "\") { SSN FIRSTNAME LASTNAME PHONE } }";
+        case NESTED:
+            return "{ customers (page: {limit: 20, offset: " + offset + "}) { SSN FIRSTNAME "
+                    + "accounts { ACCOUNT_ID TYPE holdinges { PRODUCT_ID SHARES_COUNT } } } }";
+        case MUTATION:
+            return "mutation { updateCustomer (input: {PHONE: \"(555)" + random.nextInt(100, 1000) + "-0000\"}, "
+                    + "filter: {SSN: {eq: \"" + ssn + "\"}}) { SSN PHONE } }";
+        default:
+            throw new IllegalArgumentException(op.toString());
+        }
+    }
+
+    private boolean send(String query) throws Exception {
+        String body = MAPPER.writeValueAsString(Map.of("query", query));
+        HttpRequest request = HttpRequest.newBuilder(URI.create(this.url.toString()))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        HttpResponse<String> response = this.client.send(request, HttpResponse.BodyHandlers.ofString());
+        return response.statusCode() == 200 && !MAPPER.readTree(response.body()).has("errors");
+    }
+
+    private void writeReport(Map<Operation, Histogram> histograms, long errors, double seconds) throws Exception {
+        Path path = Paths.get(this.report);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (PrintStream out = new PrintStream(Files.newOutputStream(path), true, "UTF-8")) {
+            out.printf("customers=%d accounts-per-customer=%d holdings-per-account=%d concurrency=%d duration=%s mix=%s%n%n",
+                    this.customers, this.accountsPerCustomer, this.holdingsPerAccount, this.concurrency,
+                    this.duration, this.mix);
+            out.printf("%-10s %10s %10s %10s %10s %10s %10s %10s%n", "operation", "requests", "req/s", "p50 ms",
+                    "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+            Histogram total = new Histogram(HIGHEST_LATENCY, 3);
+            histograms.forEach((op, h) -> {
+                line(out, op.key, h, seconds);
+                total.add(h);
+            });
+            line(out, "total", total, seconds);
+            out.printf("%nerrors=%d%n", errors);
+
+            // full distributions, in milliseconds, for plotting or comparing runs
+            for (Map.Entry<Operation, Histogram> entry : histograms.entrySet()) {
+                out.printf("%n%s%n", entry.getKey().key);
+                entry.getValue().outputPercentileDistribution(out, 1000.0);
+            }
+        }
+        System.out.println(new String(Files.readAllBytes(path), "UTF-8"));
+    }
+
+    private static void line(PrintStream out, String name, Histogram h, double seconds) {
+        out.printf("%-10s %10d %10.1f %10.2f %10.2f %10.2f %10.2f %10.2f%n", name, h.getTotalCount(),
+                h.getTotalCount() / seconds, h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(90) / 1000.0,
+                h.getValueAtPercentile(99) / 1000.0, h.getValueAtPercentile(99.9) / 1000.0, h.getMaxValue() / 1000.0);
+    }
+}